@@ -2,10 +2,12 @@ package de.thecoolcraft11.commandBundle;
 
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
+import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
@@ -45,6 +47,9 @@ public class BundleCommand implements CommandExecutor, TabCompleter {
             case "enablefile" -> handleEnableFile(sender, args);
             case "disablefile" -> handleDisableFile(sender, args);
             case "unloadfile" -> handleUnloadFile(sender, args);
+            case "timings" -> handleTimings(sender);
+            case "running" -> handleRunning(sender, args);
+            case "cancel" -> handleCancel(sender, args);
             case "help" -> handleHelp(sender, args);
             default -> {
                 sendHelp(sender);
@@ -141,6 +146,105 @@ public class BundleCommand implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    private boolean handleTimings(CommandSender sender) {
+        if (!sender.hasPermission("commandbundle.timings")) {
+            sender.sendMessage(Component.text("You don't have permission to use this command.", NamedTextColor.RED));
+            return true;
+        }
+
+        BundleScheduler.Metrics metrics = commandManager.getSchedulerMetrics();
+        String budget = metrics.budgetMillis() > 0 ? String.format("%.1f ms", metrics.budgetMillis()) : "unlimited";
+        sender.sendMessage(Component.text("Bundle timings (last " + metrics.ticks() + " ticks):", NamedTextColor.GREEN));
+        sender.sendMessage(Component.text("  Average per tick: ", NamedTextColor.GRAY)
+                .append(Component.text(String.format("%.2f ms", metrics.averageMillis()), NamedTextColor.WHITE)));
+        sender.sendMessage(Component.text("  Longest tick: ", NamedTextColor.GRAY)
+                .append(Component.text(String.format("%.2f ms", metrics.maxMillis()), NamedTextColor.WHITE))
+                .append(Component.text(" (budget " + budget + ")", NamedTextColor.GRAY)));
+        sender.sendMessage(Component.text("  Continuations run: ", NamedTextColor.GRAY)
+                .append(Component.text(String.valueOf(metrics.continuations()), NamedTextColor.WHITE)));
+        sender.sendMessage(Component.text("  Ticks over budget: ", NamedTextColor.GRAY)
+                .append(Component.text(String.valueOf(metrics.carriedTicks()), NamedTextColor.WHITE)));
+        sender.sendMessage(Component.text("  Waiting: ", NamedTextColor.GRAY)
+                .append(Component.text(metrics.queued() + " now, " + metrics.delayed() + " delayed", NamedTextColor.WHITE)));
+        return true;
+    }
+
+    private boolean handleRunning(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("commandbundle.running")) {
+            sender.sendMessage(Component.text("You don't have permission to use this command.", NamedTextColor.RED));
+            return true;
+        }
+
+        List<CustomCommandManager.RunningBundle> running = args.length < 2
+                ? commandManager.getRunningBundles()
+                : findRunning(args[1]);
+
+        if (running.isEmpty()) {
+            sender.sendMessage(Component.text("No command bundles are running.", NamedTextColor.YELLOW));
+            return true;
+        }
+
+        sender.sendMessage(Component.text("Running Bundles (" + running.size() + "):", NamedTextColor.GREEN));
+        for (CustomCommandManager.RunningBundle bundle : running) {
+            String progress = "action " + bundle.getPosition() + "/" + bundle.getSize();
+            if (bundle.getLoopProgress() >= 0) {
+                progress += ", loop item " + bundle.getLoopProgress();
+            }
+            sender.sendMessage(Component.text("  #" + bundle.getId() + " ", NamedTextColor.GRAY)
+                    .append(Component.text("/" + bundle.getLabel(), NamedTextColor.WHITE))
+                    .append(Component.text(" by " + bundle.getSender().getName() + " (" + progress + ")", NamedTextColor.GRAY)));
+        }
+
+        return true;
+    }
+
+    private boolean handleCancel(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("commandbundle.cancel")) {
+            sender.sendMessage(Component.text("You don't have permission to use this command.", NamedTextColor.RED));
+            return true;
+        }
+
+        if (args.length < 2) {
+            sender.sendMessage(Component.text("Usage: /bundle cancel <id|player|command|all>", NamedTextColor.RED));
+            return true;
+        }
+
+        List<CustomCommandManager.RunningBundle> running = args[1].equalsIgnoreCase("all")
+                ? commandManager.getRunningBundles()
+                : findRunning(args[1]);
+        for (CustomCommandManager.RunningBundle bundle : running) {
+            bundle.cancel();
+        }
+
+        if (running.isEmpty()) {
+            sender.sendMessage(Component.text("No running bundles match: " + args[1], NamedTextColor.RED));
+        } else {
+            sender.sendMessage(Component.text("Cancelled " + running.size() + " running bundle(s).", NamedTextColor.GREEN));
+        }
+        return true;
+    }
+
+    /**
+     * Running bundles by id ({@code 12} or {@code #12}), by online player name or by command name
+     */
+    private List<CustomCommandManager.RunningBundle> findRunning(String target) {
+        String id = target.startsWith("#") ? target.substring(1) : target;
+        if (!id.isEmpty() && id.chars().allMatch(Character::isDigit)) {
+            try {
+                CustomCommandManager.RunningBundle bundle = commandManager.getRunningBundle(Integer.parseInt(id));
+                return bundle != null ? List.of(bundle) : List.of();
+            } catch (NumberFormatException e) {
+                return List.of();
+            }
+        }
+
+        Player player = Bukkit.getPlayerExact(target);
+        if (player != null) {
+            return commandManager.getRunningBundles(player.getUniqueId());
+        }
+        return commandManager.getRunningBundlesOf(target);
+    }
+
     private boolean handleInfo(CommandSender sender, String[] args) {
         if (!sender.hasPermission("commandbundle.info")) {
             sender.sendMessage(Component.text("You don't have permission to use this command.", NamedTextColor.RED));
@@ -309,6 +413,12 @@ public class BundleCommand implements CommandExecutor, TabCompleter {
                 .append(Component.text(" - Disable auto-load for a file", NamedTextColor.GRAY)));
         sender.sendMessage(Component.text("/bundle unloadfile <file>", NamedTextColor.YELLOW)
                 .append(Component.text(" - Unload commands from a file", NamedTextColor.GRAY)));
+        sender.sendMessage(Component.text("/bundle running [player|command]", NamedTextColor.YELLOW)
+                .append(Component.text(" - List bundles that are still running", NamedTextColor.GRAY)));
+        sender.sendMessage(Component.text("/bundle cancel <id|player|command|all>", NamedTextColor.YELLOW)
+                .append(Component.text(" - Stop running bundles", NamedTextColor.GRAY)));
+        sender.sendMessage(Component.text("/bundle timings", NamedTextColor.YELLOW)
+                .append(Component.text(" - Show main-thread time used by bundles", NamedTextColor.GRAY)));
         sender.sendMessage(Component.text("/bundle help [topic]", NamedTextColor.YELLOW)
                 .append(Component.text(" - Detailed help", NamedTextColor.GRAY)));
         sender.sendMessage(Component.text("Topics: placeholders, conditions, delays, variables, random", NamedTextColor.GRAY));
@@ -393,6 +503,9 @@ public class BundleCommand implements CommandExecutor, TabCompleter {
                 sender.sendMessage(Component.text("=== Delays Help ===", NamedTextColor.GOLD));
                 sender.sendMessage(Component.text("Syntax: ", NamedTextColor.YELLOW)
                         .append(Component.text("[delay:seconds] command", NamedTextColor.WHITE)));
+                sender.sendMessage(Component.text("Seconds may have decimals ([delay:0.5]); ", NamedTextColor.GRAY)
+                        .append(Component.text("[delay:5t]", NamedTextColor.WHITE))
+                        .append(Component.text(" waits 5 ticks", NamedTextColor.GRAY)));
                 sender.sendMessage(Component.text("\nExamples:", NamedTextColor.YELLOW));
                 sender.sendMessage(Component.text("  heal %player% | [delay:5] tell %player% Cooldown over!", NamedTextColor.WHITE));
                 sender.sendMessage(Component.text("  [delay:3] !give %player% diamond 1", NamedTextColor.WHITE));
@@ -660,7 +773,7 @@ public class BundleCommand implements CommandExecutor, TabCompleter {
 
         if (args.length == 1) {
             List<String> subCommands = Arrays.asList("add", "remove", "list", "info", "reload",
-                    "edit", "subcommand", "permission", "loadfile", "enablefile", "disablefile", "unloadfile", "help");
+                    "edit", "subcommand", "permission", "loadfile", "enablefile", "disablefile", "unloadfile", "running", "cancel", "timings", "help");
             return subCommands.stream()
                     .filter(s -> s.startsWith(args[0].toLowerCase()))
                     .collect(Collectors.toList());
@@ -677,6 +790,21 @@ public class BundleCommand implements CommandExecutor, TabCompleter {
                 case "loadfile", "enablefile", "disablefile", "unloadfile" -> {
                     return getCommandYmlFiles(args[1].toLowerCase());
                 }
+                case "running", "cancel" -> {
+                    List<String> targets = new ArrayList<>();
+                    if (subCmd.equals("cancel")) {
+                        targets.add("all");
+                    }
+                    for (CustomCommandManager.RunningBundle bundle : commandManager.getRunningBundles()) {
+                        targets.add(String.valueOf(bundle.getId()));
+                        targets.add(bundle.getSender().getName());
+                        targets.add(bundle.getCommandName());
+                    }
+                    return targets.stream()
+                            .distinct()
+                            .filter(s -> s.toLowerCase().startsWith(args[1].toLowerCase()))
+                            .collect(Collectors.toList());
+                }
                 case "help" -> {
                     return Stream.of("placeholders", "conditions", "delays", "variables", "random", "subcommands", "edit")
                             .filter(s -> s.startsWith(args[1].toLowerCase()))
@@ -0,0 +1,22 @@
+package de.thecoolcraft11.commandBundle;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Cancels the bundles a player started when they leave, so their delayed actions do not fire for an offline player
+ */
+public final class BundleQuitListener implements Listener {
+    private final CustomCommandManager commandManager;
+
+    public BundleQuitListener(CustomCommandManager commandManager) {
+        this.commandManager = commandManager;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        commandManager.cancelRunningBundles(event.getPlayer().getUniqueId());
+    }
+}
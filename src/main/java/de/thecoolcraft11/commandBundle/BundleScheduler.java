@@ -0,0 +1,286 @@
+package de.thecoolcraft11.commandBundle;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+/**
+ * Runs the continuations of bundles (the rest of a bundle after a delay, an async result or a full tick)
+ * from one task on the main thread, within a time budget per tick.
+ * <p>
+ * Bundle code marks the time it runs with {@link #begin()} and {@link #end()}, whether it was started by a command
+ * or by this scheduler, and checks {@link #hasTime()} between actions. Once the tick's budget is used up, bundles
+ * {@link #submit} their continuation instead of going on; those that do not fit into a tick are carried over to
+ * the next one in the order they were submitted. The first continuation of a tick always runs, so every bundle
+ * makes progress.
+ * <p>
+ * Delayed continuations wait in a hierarchical timing wheel: {@value #LEVELS} levels of {@value #SLOTS} slots, where
+ * a slot of level {@code n} covers {@code 64^n} ticks. A timer is put into the lowest level whose range reaches its
+ * due tick and moves down a level each time the tick counter passes the start of its slot, so scheduling and
+ * cancelling are constant time and a tick only looks at one slot per level that wrapped around.
+ */
+public final class BundleScheduler implements Runnable {
+    /**
+     * Ticks the metrics are averaged over (5 seconds)
+     */
+    public static final int METRICS_TICKS = 100;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 6;
+    /**
+     * Longest delay the wheel can hold (about 100 years); longer ones are shortened to it
+     */
+    private static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final Plugin plugin;
+    private final Queue<Runnable> ready = new ConcurrentLinkedQueue<>();
+    /**
+     * Slot lists of the timing wheel, each with a sentinel timer as head
+     */
+    private final Timer[][] wheel = new Timer[LEVELS][SLOTS];
+    private int timerCount;
+    private BukkitTask task;
+    private long budgetNanos;
+    private long tick;
+
+    private int depth;
+    private long sliceStart;
+    /**
+     * Time bundles spent since the scheduler last ran, i.e. in the current tick
+     */
+    private long used;
+    private int ran;
+
+    private final long[] tickNanos = new long[METRICS_TICKS];
+    private final int[] tickRuns = new int[METRICS_TICKS];
+    private final int[] tickCarried = new int[METRICS_TICKS];
+
+    public BundleScheduler(Plugin plugin) {
+        this.plugin = plugin;
+        for (Timer[] level : wheel) {
+            for (int i = 0; i < SLOTS; i++) {
+                Timer head = new Timer(0, null);
+                head.previous = head;
+                head.next = head;
+                level[i] = head;
+            }
+        }
+    }
+
+    public void start() {
+        if (task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1, 1);
+        }
+    }
+
+    /**
+     * Stop running continuations; the ones still waiting are dropped
+     */
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        ready.clear();
+        for (Timer[] level : wheel) {
+            for (Timer head : level) {
+                while (head.next != head) {
+                    head.next.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Milliseconds per tick that bundles may spend on the main thread (0 = no limit)
+     */
+    public void setBudget(double millis) {
+        budgetNanos = (long) (Math.max(0, millis) * 1_000_000);
+    }
+
+    /**
+     * Run a continuation on the main thread as soon as there is time for it. May be called from any thread.
+     */
+    public void submit(Runnable continuation) {
+        ready.add(continuation);
+    }
+
+    /**
+     * Run a continuation after the given number of ticks (at the earliest). Main thread only.
+     *
+     * @return handle to cancel the continuation before it is due
+     */
+    public Timer schedule(Runnable continuation, long delayTicks) {
+        Timer timer = new Timer(tick + Math.min(Math.max(delayTicks, 1), MAX_DELAY), continuation);
+        insert(timer);
+        timerCount++;
+        return timer;
+    }
+
+    private void insert(Timer timer) {
+        long delta = timer.due - tick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        Timer head = wheel[level][(int) (timer.due >>> (SLOT_BITS * level)) & (SLOTS - 1)];
+        timer.previous = head.previous;
+        timer.next = head;
+        head.previous.next = timer;
+        head.previous = timer;
+    }
+
+    /**
+     * Advance the wheel by one tick and queue the timers that are due
+     */
+    private void advance() {
+        tick++;
+        // slots of higher levels that start at this tick are spread over the lower levels
+        for (int level = 1; level < LEVELS && (tick & ((1L << (SLOT_BITS * level)) - 1)) == 0; level++) {
+            Timer head = wheel[level][(int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1)];
+            Timer timer = head.next;
+            head.next = head;
+            head.previous = head;
+            while (timer != head) {
+                Timer next = timer.next;
+                insert(timer);
+                timer = next;
+            }
+        }
+
+        Timer head = wheel[0][(int) tick & (SLOTS - 1)];
+        while (head.next != head) {
+            Timer timer = head.next;
+            timer.unlink();
+            timerCount--;
+            ready.add(timer.continuation);
+        }
+    }
+
+    /**
+     * Start measuring bundle work on the main thread. Calls may nest; only the outermost pair is measured.
+     */
+    public void begin() {
+        if (depth++ == 0) {
+            sliceStart = System.nanoTime();
+        }
+    }
+
+    public void end() {
+        if (--depth == 0) {
+            used += System.nanoTime() - sliceStart;
+        }
+    }
+
+    /**
+     * Whether the budget of the current tick leaves room for more bundle work
+     */
+    public boolean hasTime() {
+        if (budgetNanos == 0) {
+            return true;
+        }
+        long current = depth > 0 ? System.nanoTime() - sliceStart : 0;
+        return used + current < budgetNanos;
+    }
+
+    @Override
+    public void run() {
+        int slot = (int) (tick % METRICS_TICKS);
+        tickNanos[slot] = used;
+        tickRuns[slot] = ran;
+        tickCarried[slot] = ready.size();
+        used = 0;
+        ran = 0;
+        advance();
+
+        begin();
+        try {
+            boolean first = true;
+            Runnable continuation;
+            while ((first || hasTime()) && (continuation = ready.poll()) != null) {
+                first = false;
+                ran++;
+                try {
+                    continuation.run();
+                } catch (RuntimeException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Error while running a command bundle", e);
+                }
+            }
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Bundle main-thread time over the last {@link #METRICS_TICKS} ticks
+     */
+    public Metrics getMetrics() {
+        int ticks = (int) Math.min(tick, METRICS_TICKS);
+        long total = 0;
+        long max = 0;
+        long runs = 0;
+        int carriedTicks = 0;
+        for (int i = 0; i < ticks; i++) {
+            total += tickNanos[i];
+            max = Math.max(max, tickNanos[i]);
+            runs += tickRuns[i];
+            if (tickCarried[i] > 0) {
+                carriedTicks++;
+            }
+        }
+        double average = ticks == 0 ? 0 : total / (double) ticks / 1_000_000;
+        return new Metrics(ticks, average, max / 1_000_000.0, budgetNanos / 1_000_000.0, runs, carriedTicks,
+                ready.size(), timerCount);
+    }
+
+    /**
+     * @param ticks        ticks the values cover
+     * @param averageMillis average bundle time per tick
+     * @param maxMillis    longest bundle time in a single tick
+     * @param budgetMillis configured budget per tick (0 = no limit)
+     * @param continuations continuations run by the scheduler
+     * @param carriedTicks ticks that ended with continuations left over for the next tick
+     * @param queued       continuations waiting to run now
+     * @param delayed      continuations waiting for a later tick
+     */
+    public record Metrics(int ticks, double averageMillis, double maxMillis, double budgetMillis,
+                          long continuations, int carriedTicks, int queued, int delayed) {
+    }
+
+    /**
+     * A delayed continuation in the timing wheel
+     */
+    public final class Timer {
+        private final long due;
+        private final Runnable continuation;
+        private Timer previous;
+        private Timer next;
+
+        private Timer(long due, Runnable continuation) {
+            this.due = due;
+            this.continuation = continuation;
+        }
+
+        /**
+         * Drop the continuation if it has not been queued yet. Main thread only.
+         */
+        public void cancel() {
+            if (next != null) {
+                unlink();
+                timerCount--;
+            }
+        }
+
+        private void unlink() {
+            previous.next = next;
+            next.previous = previous;
+            previous = null;
+            next = null;
+        }
+    }
+}
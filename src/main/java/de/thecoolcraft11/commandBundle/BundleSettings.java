@@ -0,0 +1,155 @@
+package de.thecoolcraft11.commandBundle;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Per-bundle options read from the keys next to {@code actions} in a command definition.
+ * Sub-commands use the settings of their parent command.
+ */
+public final class BundleSettings {
+    public static final BundleSettings DEFAULT = new BundleSettings(false, 10, "", 0, 0, 0, 0, 0);
+
+    private static final String ASYNC_SUBSTITUTION = "async-substitution";
+    private static final String SUBSTITUTION_TIMEOUT = "substitution-timeout";
+    private static final String SUBSTITUTION_FALLBACK = "substitution-fallback";
+    private static final String FOREACH_BATCH_SIZE = "foreach-batch-size";
+    private static final String FOREACH_TICK_BUDGET = "foreach-tick-budget";
+    private static final String COOLDOWN = "cooldown";
+    private static final String RATE_LIMIT = "rate-limit";
+
+    private final boolean asyncSubstitution;
+    private final long substitutionTimeout;
+    private final String substitutionFallback;
+    private final int foreachBatchSize;
+    private final double foreachTickBudget;
+    private final double cooldown;
+    private final int rateLimitUses;
+    private final double rateLimitSeconds;
+
+    private BundleSettings(boolean asyncSubstitution, long substitutionTimeout, String substitutionFallback,
+                           int foreachBatchSize, double foreachTickBudget,
+                           double cooldown, int rateLimitUses, double rateLimitSeconds) {
+        this.asyncSubstitution = asyncSubstitution;
+        this.substitutionTimeout = substitutionTimeout;
+        this.substitutionFallback = substitutionFallback;
+        this.foreachBatchSize = Math.max(0, foreachBatchSize);
+        this.foreachTickBudget = Math.max(0, foreachTickBudget);
+        this.cooldown = Math.max(0, cooldown);
+        this.rateLimitUses = rateLimitSeconds > 0 ? Math.max(0, rateLimitUses) : 0;
+        this.rateLimitSeconds = this.rateLimitUses > 0 ? rateLimitSeconds : 0;
+    }
+
+    public static BundleSettings load(ConfigurationSection section) {
+        if (section == null) {
+            return DEFAULT;
+        }
+        int rateLimitUses = 0;
+        double rateLimitSeconds = 0;
+        String rateLimit = section.getString(RATE_LIMIT);
+        if (rateLimit != null) {
+            int slash = rateLimit.indexOf('/');
+            try {
+                rateLimitUses = Integer.parseInt(rateLimit.substring(0, Math.max(slash, 0)).trim());
+                rateLimitSeconds = Double.parseDouble(rateLimit.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                rateLimitUses = 0;
+            }
+        }
+        return new BundleSettings(
+                section.getBoolean(ASYNC_SUBSTITUTION, DEFAULT.asyncSubstitution),
+                section.getLong(SUBSTITUTION_TIMEOUT, DEFAULT.substitutionTimeout),
+                section.getString(SUBSTITUTION_FALLBACK, DEFAULT.substitutionFallback),
+                section.getInt(FOREACH_BATCH_SIZE, DEFAULT.foreachBatchSize),
+                section.getDouble(FOREACH_TICK_BUDGET, DEFAULT.foreachTickBudget),
+                section.getDouble(COOLDOWN, DEFAULT.cooldown),
+                rateLimitUses,
+                rateLimitSeconds);
+    }
+
+    /**
+     * Write the options that differ from the defaults below {@code path}
+     */
+    public void save(ConfigurationSection config, String path) {
+        if (asyncSubstitution != DEFAULT.asyncSubstitution) {
+            config.set(path + "." + ASYNC_SUBSTITUTION, asyncSubstitution);
+        }
+        if (substitutionTimeout != DEFAULT.substitutionTimeout) {
+            config.set(path + "." + SUBSTITUTION_TIMEOUT, substitutionTimeout);
+        }
+        if (!substitutionFallback.equals(DEFAULT.substitutionFallback)) {
+            config.set(path + "." + SUBSTITUTION_FALLBACK, substitutionFallback);
+        }
+        if (foreachBatchSize != DEFAULT.foreachBatchSize) {
+            config.set(path + "." + FOREACH_BATCH_SIZE, foreachBatchSize);
+        }
+        if (foreachTickBudget != DEFAULT.foreachTickBudget) {
+            config.set(path + "." + FOREACH_TICK_BUDGET, foreachTickBudget);
+        }
+        if (cooldown != DEFAULT.cooldown) {
+            config.set(path + "." + COOLDOWN, cooldown);
+        }
+        if (rateLimitUses != DEFAULT.rateLimitUses) {
+            config.set(path + "." + RATE_LIMIT, rateLimitUses + "/" + rateLimitSeconds);
+        }
+    }
+
+    /**
+     * Resolve {@code &()} substitutions of an action concurrently off the main thread before it runs
+     */
+    public boolean isAsyncSubstitution() {
+        return asyncSubstitution;
+    }
+
+    /**
+     * Seconds before a substitution command is killed (0 = no limit)
+     */
+    public long getSubstitutionTimeout() {
+        return substitutionTimeout;
+    }
+
+    /**
+     * Text used in place of a substitution that failed or timed out
+     */
+    public String getSubstitutionFallback() {
+        return substitutionFallback;
+    }
+
+    /**
+     * Items a {@code [foreach:]} runs per tick before continuing on the next one (0 = no limit)
+     */
+    public int getForeachBatchSize() {
+        return foreachBatchSize;
+    }
+
+    /**
+     * Milliseconds a {@code [foreach:]} may spend per tick before continuing on the next one (0 = no limit)
+     */
+    public double getForeachTickBudget() {
+        return foreachTickBudget;
+    }
+
+    /**
+     * Seconds a player has to wait between two uses of the bundle (0 = none)
+     */
+    public double getCooldown() {
+        return cooldown;
+    }
+
+    /**
+     * Uses a player may make within {@link #getRateLimitSeconds()} (0 = no rate limit)
+     */
+    public int getRateLimitUses() {
+        return rateLimitUses;
+    }
+
+    public double getRateLimitSeconds() {
+        return rateLimitSeconds;
+    }
+
+    /**
+     * Whether the {@code rate-limit} key was given but is not of the form {@code <uses>/<seconds>}
+     */
+    public static boolean hasInvalidRateLimit(ConfigurationSection section, BundleSettings settings) {
+        return section != null && section.contains(RATE_LIMIT) && settings.rateLimitUses == 0;
+    }
+}
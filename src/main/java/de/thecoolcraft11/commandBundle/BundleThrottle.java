@@ -0,0 +1,168 @@
+package de.thecoolcraft11.commandBundle;
+
+import java.util.UUID;
+
+/**
+ * Cooldown and rate limit of one bundle, kept per player; all other senders share one entry.
+ * <p>
+ * Every sender has two timestamps: the end of its cooldown and, for the rate limit, the theoretical arrival time of
+ * the generic cell rate algorithm (a token bucket in a single number). A timestamp in the past means the same as no
+ * entry, so entries expire without any work. They live in an open-addressing table of primitive arrays keyed by the
+ * two halves of the UUID, and expired ones are only dropped when the table would have to grow.
+ * Main thread only.
+ */
+public final class BundleThrottle {
+    private static final UUID SHARED = new UUID(0, 0);
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long cooldownNanos;
+    /**
+     * Time one use of the rate limit takes up, i.e. the period divided by the allowed uses
+     */
+    private final long rateIntervalNanos;
+    /**
+     * How far ahead of now the rate limit's arrival time may be and still allow a use
+     */
+    private final long rateToleranceNanos;
+
+    private long[] most = new long[INITIAL_CAPACITY];
+    private long[] least = new long[INITIAL_CAPACITY];
+    private long[] cooldownUntil = new long[INITIAL_CAPACITY];
+    private long[] rateArrival = new long[INITIAL_CAPACITY];
+    private boolean[] used = new boolean[INITIAL_CAPACITY];
+    private int size;
+
+    private BundleThrottle(long cooldownNanos, int rateUses, long ratePeriodNanos) {
+        this.cooldownNanos = cooldownNanos;
+        this.rateIntervalNanos = rateUses > 0 ? ratePeriodNanos / rateUses : 0;
+        this.rateToleranceNanos = ratePeriodNanos - rateIntervalNanos;
+    }
+
+    /**
+     * @return the throttle for the limits of a bundle, or null if it has none
+     */
+    public static BundleThrottle of(BundleSettings settings) {
+        long cooldown = (long) (settings.getCooldown() * 1_000_000_000);
+        long ratePeriod = (long) (settings.getRateLimitSeconds() * 1_000_000_000);
+        int rateUses = ratePeriod > 0 ? settings.getRateLimitUses() : 0;
+        if (cooldown <= 0 && rateUses <= 0) {
+            return null;
+        }
+        return new BundleThrottle(Math.max(0, cooldown), rateUses, ratePeriod);
+    }
+
+    /**
+     * Count a use by {@code playerId} (null for senders that are not players) if both limits allow it
+     *
+     * @param now {@link System#nanoTime()}
+     * @return null if the use is allowed, otherwise why not and for how long
+     */
+    public Rejection tryAcquire(UUID playerId, long now) {
+        UUID key = playerId != null ? playerId : SHARED;
+        int slot = find(key.getMostSignificantBits(), key.getLeastSignificantBits());
+
+        long cooldownEnd = now;
+        long arrival = now;
+        if (used[slot]) {
+            cooldownEnd = cooldownUntil[slot];
+            arrival = rateArrival[slot];
+            if (arrival - now < 0) {
+                arrival = now;
+            }
+        }
+
+        if (cooldownNanos > 0 && cooldownEnd - now > 0) {
+            return new Rejection(true, cooldownEnd - now);
+        }
+        if (rateIntervalNanos > 0 && arrival - now > rateToleranceNanos) {
+            return new Rejection(false, arrival - now - rateToleranceNanos);
+        }
+
+        if (!used[slot]) {
+            slot = insert(slot, key.getMostSignificantBits(), key.getLeastSignificantBits(), now);
+        }
+        cooldownUntil[slot] = now + cooldownNanos;
+        rateArrival[slot] = arrival + rateIntervalNanos;
+        return null;
+    }
+
+    /**
+     * @param cooldown whether the cooldown or the rate limit rejected the use
+     * @param waitNanos time until the next use is allowed
+     */
+    public record Rejection(boolean cooldown, long waitNanos) {
+    }
+
+    /**
+     * Slot of the key, or the free slot where it would go
+     */
+    private int find(long keyMost, long keyLeast) {
+        int mask = used.length - 1;
+        int slot = hash(keyMost, keyLeast) & mask;
+        while (used[slot] && (most[slot] != keyMost || least[slot] != keyLeast)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int insert(int slot, long keyMost, long keyLeast, long now) {
+        if ((size + 1) * 4 > used.length * 3) {
+            rebuild(now);
+            slot = find(keyMost, keyLeast);
+        }
+        used[slot] = true;
+        most[slot] = keyMost;
+        least[slot] = keyLeast;
+        size++;
+        return slot;
+    }
+
+    /**
+     * Rehash the entries that have not expired, growing the table only if they still fill most of it
+     */
+    private void rebuild(long now) {
+        long[] oldMost = most;
+        long[] oldLeast = least;
+        long[] oldCooldown = cooldownUntil;
+        long[] oldArrival = rateArrival;
+        boolean[] oldUsed = used;
+
+        int live = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i] && isLive(oldCooldown[i], oldArrival[i], now)) {
+                live++;
+            }
+        }
+        int capacity = INITIAL_CAPACITY;
+        while ((live + 1) * 2 > capacity) {
+            capacity *= 2;
+        }
+
+        most = new long[capacity];
+        least = new long[capacity];
+        cooldownUntil = new long[capacity];
+        rateArrival = new long[capacity];
+        used = new boolean[capacity];
+        size = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i] && isLive(oldCooldown[i], oldArrival[i], now)) {
+                int slot = find(oldMost[i], oldLeast[i]);
+                used[slot] = true;
+                most[slot] = oldMost[i];
+                least[slot] = oldLeast[i];
+                cooldownUntil[slot] = oldCooldown[i];
+                rateArrival[slot] = oldArrival[i];
+                size++;
+            }
+        }
+    }
+
+    private static boolean isLive(long cooldownEnd, long arrival, long now) {
+        return cooldownEnd - now > 0 || arrival - now > 0;
+    }
+
+    private static int hash(long keyMost, long keyLeast) {
+        long h = (keyMost ^ Long.rotateLeft(keyLeast, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -4,7 +4,7 @@ package de.thecoolcraft11.commandBundle;
 public class CommandAction {
     private final String rawAction;
     private String processedAction;
-    private int delay = 0;
+    private long delayTicks = 0;
     private String condition = null;
     private String elseIfCondition = null;
     private boolean hasElse = false;
@@ -16,9 +16,11 @@ public class CommandAction {
     private boolean isHostCommand = false;
     private boolean isWebhook = false;
     private WebhookData webhookData = null;
+    private boolean await = false;
     private boolean isLoop = false;
     private String loopList = null;
     private String loopVariable = null;
+    private boolean loopRange = false;
     private String hostStoreVariable = null;
     private boolean isSetVariable = false;
     private String setVariableName = null;
@@ -33,10 +35,21 @@ public class CommandAction {
     private boolean isCondStart = false;
     private boolean isCondEnd = false;
     private String conditionLogic = null;  
+    private PlaceholderTemplate processedTemplate;
+    private PlaceholderTemplate loopListTemplate;
+    private PlaceholderTemplate loopActionTemplate;
+    private PlaceholderTemplate hostStoreVariableTemplate;
+    private PlaceholderTemplate setVariableNameTemplate;
+    private PlaceholderTemplate setVariableValueTemplate;
+    private PlaceholderTemplate messageTextTemplate;
+    private PlaceholderTemplate messagePlayerTemplate;
+    private ConditionEvaluator.Condition compiledCondition;
+    private ConditionEvaluator.Condition compiledElseIfCondition;
 
     public CommandAction(String rawAction) {
         this.rawAction = rawAction.trim();
         parseAction();
+        compileTemplates();
     }
 
     private void parseAction() {
@@ -63,12 +76,7 @@ public class CommandAction {
             int start = action.indexOf("[delay:");
             int end = action.indexOf("]", start);
             if (end > start) {
-                String delayStr = action.substring(start + 7, end);
-                try {
-                    this.delay = Integer.parseInt(delayStr);
-                } catch (NumberFormatException e) {
-                    this.delay = 0;
-                }
+                this.delayTicks = parseDelayTicks(action.substring(start + 7, end).trim());
                 action = action.substring(0, start) + action.substring(end + 1);
             }
         }
@@ -118,6 +126,12 @@ public class CommandAction {
         }
 
 
+        if (action.contains("[await]")) {
+            this.await = true;
+            action = action.replace("[await]", "");
+        }
+
+
         action = action.trim();
         if (action.startsWith("/")) {
             action = action.substring(1);
@@ -237,6 +251,35 @@ public class CommandAction {
         this.processedAction = action.trim();
     }
 
+    private void compileTemplates() {
+        processedTemplate = PlaceholderTemplate.of(processedAction);
+        if (loopList != null && loopVariable != null) {
+            String rangeExpression = rangeExpression(loopList);
+            loopRange = rangeExpression != null;
+            loopListTemplate = PlaceholderTemplate.of(loopRange ? rangeExpression : loopList);
+            loopActionTemplate = PlaceholderTemplate.forLoop(processedAction, loopVariable);
+        }
+        if (hostStoreVariable != null) {
+            hostStoreVariableTemplate = PlaceholderTemplate.of(hostStoreVariable);
+        }
+        if (setVariableName != null && setVariableValue != null) {
+            setVariableNameTemplate = PlaceholderTemplate.of(setVariableName);
+            setVariableValueTemplate = PlaceholderTemplate.of(setVariableValue);
+        }
+        if (messageText != null) {
+            messageTextTemplate = PlaceholderTemplate.of(messageText);
+        }
+        if (messagePlayer != null) {
+            messagePlayerTemplate = PlaceholderTemplate.of(messagePlayer);
+        }
+        if (condition != null) {
+            compiledCondition = ConditionEvaluator.compile(condition);
+        }
+        if (elseIfCondition != null) {
+            compiledElseIfCondition = ConditionEvaluator.compile(elseIfCondition);
+        }
+    }
+
     public String getRawAction() {
         return rawAction;
     }
@@ -245,14 +288,43 @@ public class CommandAction {
         return processedAction;
     }
 
-    public int getDelay() {
-        return delay;
+    public PlaceholderTemplate getProcessedTemplate() {
+        return processedTemplate;
+    }
+
+    /**
+     * Delay before this action in server ticks (20 per second)
+     */
+    public long getDelayTicks() {
+        return delayTicks;
+    }
+
+    /**
+     * {@code 5t} is 5 ticks, anything else is seconds and may have decimals ({@code 0.25} = 5 ticks).
+     * A positive delay is at least one tick; invalid ones are no delay.
+     */
+    private static long parseDelayTicks(String delay) {
+        try {
+            double ticks = delay.endsWith("t")
+                    ? Long.parseLong(delay.substring(0, delay.length() - 1).trim())
+                    : Double.parseDouble(delay) * 20;
+            if (!(ticks > 0)) {
+                return 0;
+            }
+            return Math.max(1, Math.round(Math.min(ticks, Long.MAX_VALUE)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
     }
 
     public String getCondition() {
         return condition;
     }
 
+    public ConditionEvaluator.Condition getCompiledCondition() {
+        return compiledCondition;
+    }
+
     public boolean isConsoleCommand() {
         return isConsoleCommand;
     }
@@ -270,7 +342,7 @@ public class CommandAction {
     }
 
     public boolean hasDelay() {
-        return delay > 0;
+        return delayTicks > 0;
     }
 
     public boolean isHostCommand() {
@@ -285,6 +357,14 @@ public class CommandAction {
         return webhookData;
     }
 
+    /**
+     * Whether the bundle waits for this webhook's response before running the next action.
+     * Always the case when the response is stored in a variable, otherwise only with {@code [await]}.
+     */
+    public boolean isAwaitWebhook() {
+        return webhookData != null && (await || webhookData.shouldStoreResponse());
+    }
+
     public boolean isLoop() {
         return isLoop;
     }
@@ -297,10 +377,53 @@ public class CommandAction {
         return loopVariable;
     }
 
+    public PlaceholderTemplate getLoopListTemplate() {
+        return loopListTemplate;
+    }
+
+    /**
+     * Whether the loop list is a {@code {math:a..b}} range. The list template then only holds {@code a..b},
+     * so the range can be iterated without writing all of its numbers out.
+     */
+    public boolean isLoopRange() {
+        return loopRange;
+    }
+
+    /**
+     * The inside of a list that consists of one {@code {math:...}} range, or null
+     */
+    private static String rangeExpression(String list) {
+        if (!list.startsWith("{math:") || !list.endsWith("}")) {
+            return null;
+        }
+        int depth = 0;
+        for (int i = 0; i < list.length(); i++) {
+            char c = list.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0 && i != list.length() - 1) {
+                return null;
+            }
+        }
+        String expression = list.substring(6, list.length() - 1);
+        return depth == 0 && expression.contains("..") ? expression : null;
+    }
+
+    /**
+     * Loop body with {@code %<loopVariable>%} bound to the current item
+     */
+    public PlaceholderTemplate getLoopActionTemplate() {
+        return loopActionTemplate;
+    }
+
     public String getHostStoreVariable() {
         return hostStoreVariable;
     }
 
+    public PlaceholderTemplate getHostStoreVariableTemplate() {
+        return hostStoreVariableTemplate;
+    }
+
     public boolean isSetVariable() {
         return isSetVariable;
     }
@@ -313,6 +436,14 @@ public class CommandAction {
         return setVariableValue;
     }
 
+    public PlaceholderTemplate getSetVariableNameTemplate() {
+        return setVariableNameTemplate;
+    }
+
+    public PlaceholderTemplate getSetVariableValueTemplate() {
+        return setVariableValueTemplate;
+    }
+
     public boolean isSuppressVariableOutput() {
         return suppressVariableOutput;
     }
@@ -325,6 +456,10 @@ public class CommandAction {
         return elseIfCondition;
     }
 
+    public ConditionEvaluator.Condition getCompiledElseIfCondition() {
+        return compiledElseIfCondition;
+    }
+
     public boolean hasElseIf() {
         return elseIfCondition != null;
     }
@@ -353,6 +488,14 @@ public class CommandAction {
         return messagePlayer;
     }
 
+    public PlaceholderTemplate getMessageTextTemplate() {
+        return messageTextTemplate;
+    }
+
+    public PlaceholderTemplate getMessagePlayerTemplate() {
+        return messagePlayerTemplate;
+    }
+
     public boolean isBranchStart() {
         return isBranchStart;
     }
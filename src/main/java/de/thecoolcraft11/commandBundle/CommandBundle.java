@@ -26,6 +26,9 @@ public final class CommandBundle extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        if (commandManager != null) {
+            commandManager.shutdown();
+        }
 
         getLogger().info("CommandBundle has been disabled.");
     }
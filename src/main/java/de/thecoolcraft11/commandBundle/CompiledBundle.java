@@ -0,0 +1,127 @@
+package de.thecoolcraft11.commandBundle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, pre-parsed form of a bundle's action lines.
+ * Built once when the bundle is loaded or changed, then reused for every invocation.
+ */
+public final class CompiledBundle {
+    private final List<CommandAction> actions;
+    private final List<CommandAction> randomActions;
+    private final int totalRandomWeight;
+    private final BundleSettings settings;
+    /**
+     * Per action: index of the next condition, {@code [else]} or block marker
+     */
+    private final int[] nextHeader;
+    /**
+     * Per action: index of the next condition or block marker, passing over {@code [else if]} and {@code [else]}
+     */
+    private final int[] chainEnd;
+    /**
+     * Sum of the delays of the actions before each index
+     */
+    private final long[] delayPrefix;
+
+    private CompiledBundle(List<CommandAction> actions, List<CommandAction> randomActions, BundleSettings settings) {
+        this.actions = Collections.unmodifiableList(actions);
+        this.randomActions = Collections.unmodifiableList(randomActions);
+        this.totalRandomWeight = randomActions.stream().mapToInt(CommandAction::getRandomWeight).sum();
+        this.settings = settings;
+
+        int size = actions.size();
+        this.delayPrefix = new long[size + 1];
+        for (int i = 0; i < size; i++) {
+            delayPrefix[i + 1] = delayPrefix[i] + actions.get(i).getDelayTicks();
+        }
+        this.nextHeader = new int[size];
+        this.chainEnd = new int[size];
+        int header = size;
+        int end = size;
+        for (int i = size - 1; i >= 0; i--) {
+            nextHeader[i] = header;
+            chainEnd[i] = end;
+            CommandAction action = actions.get(i);
+            boolean marker = action.isBranchStart() || action.isBranchEnd() || action.isCondStart() || action.isCondEnd();
+            boolean laterArm = !marker && (action.hasElseIf() || (!action.hasCondition() && action.hasElse()));
+            if (marker || laterArm || action.hasCondition()) {
+                header = i;
+                if (!laterArm) {
+                    end = i;
+                }
+            }
+        }
+    }
+
+    public static CompiledBundle compile(List<String> rawActions, BundleSettings settings) {
+        List<CommandAction> actions = new ArrayList<>(rawActions.size());
+        List<CommandAction> randomActions = new ArrayList<>();
+
+        for (String raw : rawActions) {
+            CommandAction action = new CommandAction(raw);
+            if (action.isRandom()) {
+                randomActions.add(action);
+            } else {
+                actions.add(action);
+            }
+        }
+
+        return new CompiledBundle(actions, randomActions, settings);
+    }
+
+    /**
+     * Non-random actions in their original order
+     */
+    public List<CommandAction> getActions() {
+        return actions;
+    }
+
+    /**
+     * Candidates for the single random pick, appended after the regular actions
+     */
+    public List<CommandAction> getRandomActions() {
+        return randomActions;
+    }
+
+    public boolean hasRandomActions() {
+        return !randomActions.isEmpty();
+    }
+
+    public int getTotalRandomWeight() {
+        return totalRandomWeight;
+    }
+
+    /**
+     * Where to continue after the action at {@code index} left its chain without an active arm: the ordinary actions
+     * up to the next condition or marker would all be skipped, and once an arm has matched, so would every
+     * {@code [else if]} and {@code [else]} arm after it. Indexes past the regular actions (the random pick) have no
+     * jump. The delays of the skipped actions still have to be waited, see {@link #getDelayTicks}.
+     *
+     * @param matched whether an arm of the chain has already matched
+     */
+    public int getSkipTarget(int index, boolean matched) {
+        if (index >= nextHeader.length) {
+            return index + 1;
+        }
+        return matched ? chainEnd[index] : nextHeader[index];
+    }
+
+    /**
+     * Total delay in ticks of the regular actions from {@code from} (inclusive) to {@code to} (exclusive)
+     */
+    public long getDelayTicks(int from, int to) {
+        int last = delayPrefix.length - 1;
+        return delayPrefix[Math.min(to, last)] - delayPrefix[Math.min(from, last)];
+    }
+
+    public BundleSettings getSettings() {
+        return settings;
+    }
+
+    public boolean isEmpty() {
+        return actions.isEmpty() && randomActions.isEmpty();
+    }
+}
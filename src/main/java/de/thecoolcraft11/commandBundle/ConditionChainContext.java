@@ -1,10 +1,92 @@
 package de.thecoolcraft11.commandBundle;
 
-public class ConditionChainContext {
-    public boolean inChain = false;
-    public boolean branchMatched = false;
-    public boolean branchActive = false;
-    public String conditionLogic = "OR";
-    public boolean isNewChain = true;
-}
+/**
+ * If/else state of a running bundle as its next action sees it.
+ * <p>
+ * Immutable: each action that changes the state replaces the execution's instance, so a bundle that waits for a
+ * delay, an async result or the next tick resumes with exactly the state its last action left, and nothing else can
+ * change it in between. There are only 32 distinct states, all built up front, so changes never allocate.
+ */
+public final class ConditionChainContext {
+    private static final int IN_CHAIN = 1;
+    private static final int BRANCH_MATCHED = 2;
+    private static final int BRANCH_ACTIVE = 4;
+    private static final int AND_LOGIC = 8;
+    private static final int NEW_CHAIN = 16;
+
+    private static final ConditionChainContext[] STATES = new ConditionChainContext[32];
+
+    static {
+        for (int i = 0; i < STATES.length; i++) {
+            STATES[i] = new ConditionChainContext(i);
+        }
+    }
+
+    /**
+     * State at the start of a bundle: no chain, OR logic
+     */
+    public static final ConditionChainContext INITIAL = STATES[NEW_CHAIN];
+
+    private final int flags;
+
+    private ConditionChainContext(int flags) {
+        this.flags = flags;
+    }
+
+    public boolean isInChain() {
+        return (flags & IN_CHAIN) != 0;
+    }
+
+    public boolean isBranchMatched() {
+        return (flags & BRANCH_MATCHED) != 0;
+    }
+
+    public boolean isBranchActive() {
+        return (flags & BRANCH_ACTIVE) != 0;
+    }
 
+    /**
+     * @return {@code "AND"} or {@code "OR"}
+     */
+    public String getConditionLogic() {
+        return (flags & AND_LOGIC) != 0 ? "AND" : "OR";
+    }
+
+    public boolean isNewChain() {
+        return (flags & NEW_CHAIN) != 0;
+    }
+
+    public ConditionChainContext withInChain(boolean inChain) {
+        return with(IN_CHAIN, inChain);
+    }
+
+    public ConditionChainContext withBranchMatched(boolean branchMatched) {
+        return with(BRANCH_MATCHED, branchMatched);
+    }
+
+    public ConditionChainContext withBranchActive(boolean branchActive) {
+        return with(BRANCH_ACTIVE, branchActive);
+    }
+
+    /**
+     * @param logic {@code "AND"}; anything else is OR
+     */
+    public ConditionChainContext withConditionLogic(String logic) {
+        return with(AND_LOGIC, "AND".equals(logic));
+    }
+
+    public ConditionChainContext withNewChain(boolean newChain) {
+        return with(NEW_CHAIN, newChain);
+    }
+
+    private ConditionChainContext with(int flag, boolean set) {
+        return STATES[set ? flags | flag : flags & ~flag];
+    }
+
+    @Override
+    public String toString() {
+        return "ConditionChainContext{inChain=" + isInChain() + ", branchMatched=" + isBranchMatched()
+                + ", branchActive=" + isBranchActive() + ", conditionLogic=" + getConditionLogic()
+                + ", newChain=" + isNewChain() + "}";
+    }
+}
@@ -1,269 +1,596 @@
 package de.thecoolcraft11.commandBundle;
 
+import org.bukkit.GameMode;
 import org.bukkit.Material;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
-
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+
+/**
+ * Conditions of {@code [if:...]} and {@code [else if:...]} ({@code type:value[:param]}).
+ * <p>
+ * A condition is parsed once by {@link #compile} into a typed {@link Condition} (material, game mode, comparison and
+ * threshold already resolved), so testing it does no string work. Conditions using {@code %player%}, {@code %uuid%}
+ * or {@code %player_uuid%} are compiled again for each player, and those compiled forms are kept for the most recent
+ * players.
+ * <p>
+ * Conditions starting with {@code (} or {@code !(} can combine others with {@code &&}, {@code ||}, {@code !} and
+ * parentheses ({@code (perm:x && level:>=10) || op:true}). {@code &&} binds tighter than {@code ||}; both stop at the
+ * first operand that decides the result and test the cheap operands (permissions, player state) before variables and
+ * inventory scans.
+ */
 public class ConditionEvaluator {
+    private static volatile ItemCountCache itemCounts;
+
+    /**
+     * A compiled condition. Main thread only.
+     */
+    public interface Condition {
+        boolean test(CommandSender sender, VariableManager variableManager);
+
+        /**
+         * Relative cost of {@link #test}, used to order the operands of {@code &&} and {@code ||}
+         */
+        default int cost() {
+            return 1;
+        }
+    }
 
+    /**
+     * Cache used by {@code item:} conditions, or null to scan the inventory on every test
+     */
+    public static void setItemCountCache(ItemCountCache cache) {
+        itemCounts = cache;
+    }
 
     public static boolean evaluate(CommandSender sender, String condition, VariableManager variableManager) {
+        return compile(condition).test(sender, variableManager);
+    }
+
+    /**
+     * @return the compiled condition; an empty or missing one is always true, an invalid one always false
+     */
+    public static Condition compile(String condition) {
         if (condition == null || condition.isEmpty()) {
-            return true;
+            return Constant.TRUE;
         }
+        if (isExpression(condition)) {
+            return ExpressionParser.parse(condition);
+        }
+        return compileSingle(condition);
+    }
 
-        if (sender instanceof Player player) {
-            condition = condition.replace("%player%", player.getName())
-                    .replace("%uuid%", player.getUniqueId().toString())
-                    .replace("%player_uuid%", player.getUniqueId().toString());
+    /**
+     * Combined conditions have to start with {@code (} or {@code !(}, so a single condition whose value happens to
+     * contain {@code &&}, {@code ||} or {@code !} keeps its meaning
+     */
+    private static boolean isExpression(String condition) {
+        String trimmed = condition.trim();
+        return trimmed.startsWith("(") || trimmed.startsWith("!(");
+    }
+
+    private static Condition compileSingle(String condition) {
+        if (condition.contains("%player%") || condition.contains("%uuid%") || condition.contains("%player_uuid%")) {
+            return new PlayerCondition(condition);
         }
+        return parse(condition);
+    }
+
+    private static Condition parse(String condition) {
         String[] parts = condition.split(":", 3);
         if (parts.length < 2) {
-            return false;
+            return Constant.FALSE;
         }
         String type = parts[0].toLowerCase();
         String value = parts[1];
         String param = parts.length > 2 ? parts[2] : null;
 
-        if (type.equals("var")) {
-            if (sender instanceof Player player) {
-                value = value.replace("%player%", player.getName());
-                if (param != null) {
-                    param = param.replace("%player%", player.getName());
-                }
-            }
-        }
         return switch (type) {
-            case "permission", "perm" -> sender.hasPermission(value);
-            case "item" -> evaluateItem(sender, value, param);
-            case "world" -> evaluateWorld(sender, value);
-            case "gamemode", "gm" -> evaluateGamemode(sender, value);
-            case "health" -> evaluateHealth(sender, value);
-            case "level", "xp" -> evaluateLevel(sender, value);
-            case "flying" -> evaluateFlying(sender, value);
-            case "sneaking" -> evaluateSneaking(sender, value);
-            case "op" -> sender.isOp() == Boolean.parseBoolean(value);
-            case "player" -> evaluatePlayerName(sender, value);
-            case "var" -> evaluateVariable(sender, value, param, variableManager);
-            default -> false;
+            case "permission", "perm" -> new PermissionCondition(value);
+            case "item" -> compileItem(value, param);
+            case "world" -> new WorldCondition(value);
+            case "gamemode", "gm" -> compileGamemode(value);
+            case "health" -> new HealthCondition(Comparison.parse(value));
+            case "level", "xp" -> new LevelCondition(Comparison.parse(value));
+            case "flying" -> new FlyingCondition(Boolean.parseBoolean(value));
+            case "sneaking" -> new SneakingCondition(Boolean.parseBoolean(value));
+            case "op" -> new OpCondition(Boolean.parseBoolean(value));
+            case "player" -> new PlayerNameCondition(value);
+            case "var" -> param == null ? Constant.FALSE : new VariableCondition(value, param);
+            default -> Constant.FALSE;
         };
     }
 
-    private static boolean evaluateVariable(CommandSender sender, String varName, String expectedValue, VariableManager variableManager) {
-        if (variableManager == null || expectedValue == null) {
-            return false;
+    private static Condition compileItem(String itemName, String amount) {
+        Material material;
+        try {
+            material = Material.valueOf(itemName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Constant.FALSE;
         }
 
-        String jsonPath = null;
-        int dot = varName.indexOf('.');
-        if (dot != -1) {
-            jsonPath = varName.substring(dot + 1);
-            varName = varName.substring(0, dot);
+        int requiredAmount = 1;
+        if (amount != null) {
+            try {
+                requiredAmount = Integer.parseInt(amount);
+            } catch (NumberFormatException ignored) {
+            }
         }
+        return new ItemCondition(material, requiredAmount);
+    }
 
-        String actualValue;
-        if (sender instanceof Player player) {
-            actualValue = variableManager.getPlayer(player.getUniqueId(), varName);
-        } else {
-            actualValue = variableManager.getGlobal(varName);
+    private static Condition compileGamemode(String gamemode) {
+        for (GameMode mode : GameMode.values()) {
+            if (mode.name().equalsIgnoreCase(gamemode)) {
+                return new GamemodeCondition(mode);
+            }
         }
+        return Constant.FALSE;
+    }
+
+    private enum Constant implements Condition {
+        TRUE, FALSE;
 
-        if (jsonPath != null && actualValue != null && !actualValue.isEmpty()) {
-            actualValue = extractJsonPath(actualValue, jsonPath);
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            return this == TRUE;
         }
 
-        if (actualValue == null) {
-            return false;
+        @Override
+        public int cost() {
+            return 0;
+        }
+    }
+
+    /**
+     * Recursive descent over {@code ||}, {@code &&}, {@code !} and parentheses; an operand runs up to the next
+     * operator or unmatched {@code )} and is compiled as a single condition. Anything malformed is always false.
+     */
+    private static final class ExpressionParser {
+        private final String text;
+        private int pos;
+
+        private ExpressionParser(String text) {
+            this.text = text;
         }
 
+        static Condition parse(String text) {
+            ExpressionParser parser = new ExpressionParser(text);
+            try {
+                Condition condition = parser.parseOr();
+                parser.skipSpaces();
+                return parser.pos == text.length() ? condition : Constant.FALSE;
+            } catch (IllegalArgumentException e) {
+                return Constant.FALSE;
+            }
+        }
 
-        if (expectedValue.equals("!=")) {
-            return !actualValue.isEmpty();
+        private Condition parseOr() {
+            List<Condition> operands = new ArrayList<>();
+            operands.add(parseAnd());
+            while (accept("||")) {
+                operands.add(parseAnd());
+            }
+            return operands.size() == 1 ? operands.getFirst() : AnyCondition.of(operands);
         }
 
-        if (expectedValue.startsWith("!=")) {
-            String compareTo = expectedValue.substring(2);
-            return !actualValue.equalsIgnoreCase(compareTo);
+        private Condition parseAnd() {
+            List<Condition> operands = new ArrayList<>();
+            operands.add(parseUnary());
+            while (accept("&&")) {
+                operands.add(parseUnary());
+            }
+            return operands.size() == 1 ? operands.getFirst() : AllCondition.of(operands);
         }
 
+        private Condition parseUnary() {
+            if (accept("!")) {
+                return NotCondition.of(parseUnary());
+            }
+            if (accept("(")) {
+                Condition condition = parseOr();
+                if (!accept(")")) {
+                    throw new IllegalArgumentException("Missing ) at " + pos);
+                }
+                return condition;
+            }
+
+            int start = pos;
+            int depth = 0;
+            while (pos < text.length() && !text.startsWith("&&", pos) && !text.startsWith("||", pos)) {
+                char c = text.charAt(pos);
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')' && depth-- == 0) {
+                    break;
+                }
+                pos++;
+            }
+            String operand = text.substring(start, pos).trim();
+            if (operand.isEmpty()) {
+                throw new IllegalArgumentException("Missing condition at " + start);
+            }
+            return compileSingle(operand);
+        }
 
-        return actualValue.equalsIgnoreCase(expectedValue);
-    }
+        private boolean accept(String token) {
+            skipSpaces();
+            if (text.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
 
-    private static String extractJsonPath(String json, String path) {
-        String current = json.trim();
-        for (String key : path.split("\\.")) {
-            current = findJsonValue(current, key);
-            if (current == null || current.isEmpty()) {
-                return "";
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
             }
-            current = stripQuotes(current.trim());
         }
-        return current;
     }
 
-    private static String findJsonValue(String json, String key) {
-        int idx = 0;
-        while (true) {
-            idx = json.indexOf("\"" + key + "\"", idx);
-            if (idx == -1) return null;
-            int colon = json.indexOf(":", idx + key.length() + 2);
-            if (colon == -1) return null;
-            int pos = colon + 1;
-            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) pos++;
-            if (pos >= json.length()) return null;
-            char ch = json.charAt(pos);
-            if (ch == '"') {
-                int end = pos + 1;
-                boolean escape = false;
-                while (end < json.length()) {
-                    char c = json.charAt(end);
-                    if (c == '"' && !escape) break;
-                    escape = c == '\\' && !escape;
-                    end++;
+    /**
+     * {@code &&} of several conditions, cheapest first
+     */
+    private static final class AllCondition implements Condition {
+        private final Condition[] operands;
+        private final int cost;
+
+        private AllCondition(Condition[] operands, int cost) {
+            this.operands = operands;
+            this.cost = cost;
+        }
+
+        static Condition of(List<Condition> conditions) {
+            List<Condition> operands = new ArrayList<>();
+            for (Condition condition : conditions) {
+                if (condition == Constant.FALSE) {
+                    return Constant.FALSE;
+                } else if (condition instanceof AllCondition all) {
+                    operands.addAll(List.of(all.operands));
+                } else if (condition != Constant.TRUE) {
+                    operands.add(condition);
+                }
+            }
+            if (operands.isEmpty()) {
+                return Constant.TRUE;
+            }
+            if (operands.size() == 1) {
+                return operands.getFirst();
+            }
+            operands.sort(Comparator.comparingInt(Condition::cost));
+            return new AllCondition(operands.toArray(new Condition[0]), totalCost(operands));
+        }
+
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            for (Condition operand : operands) {
+                if (!operand.test(sender, variableManager)) {
+                    return false;
                 }
-                if (end >= json.length()) return null;
-                return json.substring(pos + 1, end);
-            } else if (ch == '{') {
-                int depth = 1, end = pos + 1;
-                while (end < json.length() && depth > 0) {
-                    char c = json.charAt(end);
-                    if (c == '{') depth++;
-                    else if (c == '}') depth--;
-                    end++;
+            }
+            return true;
+        }
+
+        @Override
+        public int cost() {
+            return cost;
+        }
+    }
+
+    /**
+     * {@code ||} of several conditions, cheapest first
+     */
+    private static final class AnyCondition implements Condition {
+        private final Condition[] operands;
+        private final int cost;
+
+        private AnyCondition(Condition[] operands, int cost) {
+            this.operands = operands;
+            this.cost = cost;
+        }
+
+        static Condition of(List<Condition> conditions) {
+            List<Condition> operands = new ArrayList<>();
+            for (Condition condition : conditions) {
+                if (condition == Constant.TRUE) {
+                    return Constant.TRUE;
+                } else if (condition instanceof AnyCondition any) {
+                    operands.addAll(List.of(any.operands));
+                } else if (condition != Constant.FALSE) {
+                    operands.add(condition);
                 }
-                if (depth != 0) return null;
-                return json.substring(pos, end);
-            } else if (ch == '[') {
-                int depth = 1, end = pos + 1;
-                while (end < json.length() && depth > 0) {
-                    char c = json.charAt(end);
-                    if (c == '[') depth++;
-                    else if (c == ']') depth--;
-                    end++;
+            }
+            if (operands.isEmpty()) {
+                return Constant.FALSE;
+            }
+            if (operands.size() == 1) {
+                return operands.getFirst();
+            }
+            operands.sort(Comparator.comparingInt(Condition::cost));
+            return new AnyCondition(operands.toArray(new Condition[0]), totalCost(operands));
+        }
+
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            for (Condition operand : operands) {
+                if (operand.test(sender, variableManager)) {
+                    return true;
                 }
-                if (depth != 0) return null;
-                return json.substring(pos, end);
-            } else {
-                int end = pos;
-                while (end < json.length() && json.charAt(end) != ',' && json.charAt(end) != '}') end++;
-                return json.substring(pos, end).trim();
             }
+            return false;
+        }
+
+        @Override
+        public int cost() {
+            return cost;
         }
     }
 
-    private static String stripQuotes(String value) {
-        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
-            return value.substring(1, value.length() - 1);
+    private static int totalCost(List<Condition> operands) {
+        int cost = 0;
+        for (Condition operand : operands) {
+            cost += operand.cost();
         }
-        return value;
+        return cost;
     }
 
-    private static boolean evaluateItem(CommandSender sender, String itemName, String amount) {
-        if (!(sender instanceof Player player)) {
-            return false;
+    private record NotCondition(Condition operand) implements Condition {
+        static Condition of(Condition operand) {
+            if (operand instanceof Constant constant) {
+                return constant == Constant.TRUE ? Constant.FALSE : Constant.TRUE;
+            }
+            return operand instanceof NotCondition not ? not.operand : new NotCondition(operand);
         }
 
-        Material material;
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            return !operand.test(sender, variableManager);
+        }
 
-        try {
-            material = Material.valueOf(itemName.toUpperCase());
-        } catch (IllegalArgumentException e) {
-            return false;
+        @Override
+        public int cost() {
+            return operand.cost();
         }
+    }
 
-        int requiredAmount = 1;
-        if (amount != null) {
-            try {
-                requiredAmount = Integer.parseInt(amount);
-            } catch (NumberFormatException ignored) {
+    /**
+     * Condition with player placeholders, compiled per player with the placeholders filled in
+     */
+    private static final class PlayerCondition implements Condition {
+        private static final int MAX_PLAYERS = 64;
+
+        private final String source;
+        /**
+         * Other senders leave the placeholders as they are
+         */
+        private final Condition others;
+        private final Map<UUID, Bound> players = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Bound> eldest) {
+                return size() > MAX_PLAYERS;
             }
+        };
+
+        private PlayerCondition(String source) {
+            this.source = source;
+            this.others = parse(source);
         }
 
-        int totalAmount = 0;
-        for (ItemStack item : player.getInventory().getContents()) {
-            if (item != null && item.getType() == material) {
-                totalAmount += item.getAmount();
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            if (!(sender instanceof Player player)) {
+                return others.test(sender, variableManager);
             }
+            UUID uuid = player.getUniqueId();
+            String name = player.getName();
+            Bound bound = players.get(uuid);
+            if (bound == null || !bound.name.equals(name)) {
+                String condition = source.replace("%player%", name)
+                        .replace("%uuid%", uuid.toString())
+                        .replace("%player_uuid%", uuid.toString());
+                bound = new Bound(name, parse(condition));
+                players.put(uuid, bound);
+            }
+            return bound.condition.test(sender, variableManager);
+        }
+
+        @Override
+        public int cost() {
+            return others.cost();
         }
 
-        return totalAmount >= requiredAmount;
+        private record Bound(String name, Condition condition) {
+        }
     }
 
-    private static boolean evaluateWorld(CommandSender sender, String worldName) {
-        if (!(sender instanceof Player player)) {
-            return false;
+    private record PermissionCondition(String permission) implements Condition {
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            return sender.hasPermission(permission);
         }
-        return player.getWorld().getName().equalsIgnoreCase(worldName);
     }
 
-    private static boolean evaluateGamemode(CommandSender sender, String gamemode) {
-        if (!(sender instanceof Player player)) {
-            return false;
+    private record ItemCondition(Material material, int amount) implements Condition {
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            if (!(sender instanceof Player player)) {
+                return false;
+            }
+            ItemCountCache cache = itemCounts;
+            if (cache != null) {
+                return cache.count(player, material) >= amount;
+            }
+            int totalAmount = 0;
+            for (ItemStack item : player.getInventory().getContents()) {
+                if (item != null && item.getType() == material) {
+                    totalAmount += item.getAmount();
+                }
+            }
+            return totalAmount >= amount;
+        }
+
+        @Override
+        public int cost() {
+            return 8;
         }
-        return player.getGameMode().name().equalsIgnoreCase(gamemode);
     }
 
-    private static boolean evaluateHealth(CommandSender sender, String condition) {
-        if (!(sender instanceof Player player)) {
-            return false;
+    private record WorldCondition(String world) implements Condition {
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            return sender instanceof Player player && player.getWorld().getName().equalsIgnoreCase(world);
         }
-        return evaluateNumericCondition(player.getHealth(), condition);
     }
 
-    private static boolean evaluateLevel(CommandSender sender, String condition) {
-        if (!(sender instanceof Player player)) {
-            return false;
+    private record GamemodeCondition(GameMode gameMode) implements Condition {
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            return sender instanceof Player player && player.getGameMode() == gameMode;
         }
-        return evaluateNumericCondition(player.getLevel(), condition);
     }
 
-    private static boolean evaluateFlying(CommandSender sender, String value) {
-        if (!(sender instanceof Player player)) {
-            return false;
+    private record HealthCondition(Comparison comparison) implements Condition {
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            return sender instanceof Player player && comparison.test(player.getHealth());
         }
-        return player.isFlying() == Boolean.parseBoolean(value);
     }
 
-    private static boolean evaluateSneaking(CommandSender sender, String value) {
-        if (!(sender instanceof Player player)) {
-            return false;
+    private record LevelCondition(Comparison comparison) implements Condition {
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            return sender instanceof Player player && comparison.test(player.getLevel());
         }
-        return player.isSneaking() == Boolean.parseBoolean(value);
     }
 
-    private static boolean evaluatePlayerName(CommandSender sender, String name) {
-        if (!(sender instanceof Player player)) {
-            return false;
+    private record FlyingCondition(boolean flying) implements Condition {
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            return sender instanceof Player player && player.isFlying() == flying;
+        }
+    }
+
+    private record SneakingCondition(boolean sneaking) implements Condition {
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            return sender instanceof Player player && player.isSneaking() == sneaking;
+        }
+    }
+
+    private record OpCondition(boolean op) implements Condition {
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            return sender.isOp() == op;
+        }
+    }
+
+    private record PlayerNameCondition(String name) implements Condition {
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            return sender instanceof Player player && player.getName().equalsIgnoreCase(name);
+        }
+    }
+
+    /**
+     * {@code var:name:value}, {@code var:name:!=value} or {@code var:name:!=} (set and not empty);
+     * {@code name} may be a JSON path ({@code stats.kills})
+     */
+    private static final class VariableCondition implements Condition {
+        private final String varName;
+        private final String root;
+        private final int dot;
+        private final boolean negated;
+        /**
+         * Value to compare with, or null to test for a non-empty value
+         */
+        private final String expected;
+
+        private VariableCondition(String varName, String expectedValue) {
+            this.varName = varName;
+            this.dot = varName.indexOf('.');
+            this.root = dot != -1 ? varName.substring(0, dot) : varName;
+            this.negated = expectedValue.startsWith("!=");
+            this.expected = expectedValue.equals("!=") ? null : negated ? expectedValue.substring(2) : expectedValue;
+        }
+
+        @Override
+        public boolean test(CommandSender sender, VariableManager variableManager) {
+            if (variableManager == null) {
+                return false;
+            }
+
+            String actualValue;
+            if (dot != -1) {
+                JsonDocument json = sender instanceof Player player
+                        ? variableManager.getPlayerJson(player.getUniqueId(), root)
+                        : variableManager.getGlobalJson(root);
+                actualValue = json == null ? "" : json.get(varName, dot + 1);
+            } else if (sender instanceof Player player) {
+                actualValue = variableManager.getPlayer(player.getUniqueId(), varName);
+            } else {
+                actualValue = variableManager.getGlobal(varName);
+            }
+
+            if (actualValue == null) {
+                return false;
+            }
+            if (expected == null) {
+                return !actualValue.isEmpty();
+            }
+            return actualValue.equalsIgnoreCase(expected) != negated;
+        }
+
+        @Override
+        public int cost() {
+            return dot != -1 ? 3 : 2;
         }
-        return player.getName().equalsIgnoreCase(name);
     }
 
-    private static boolean evaluateNumericCondition(double actual, String condition) {
-        condition = condition.trim();
-
-        if (condition.startsWith(">=")) {
-            double value = parseDouble(condition.substring(2));
-            return actual >= value;
-        } else if (condition.startsWith("<=")) {
-            double value = parseDouble(condition.substring(2));
-            return actual <= value;
-        } else if (condition.startsWith(">")) {
-            double value = parseDouble(condition.substring(1));
-            return actual > value;
-        } else if (condition.startsWith("<")) {
-            double value = parseDouble(condition.substring(1));
-            return actual < value;
-        } else if (condition.startsWith("==") || condition.startsWith("=")) {
-            String numberPart = condition.startsWith("==") ? condition.substring(2) : condition.substring(1);
-            double value = parseDouble(numberPart);
-            return Math.abs(actual - value) < 0.01;
-        } else {
-
-            double value = parseDouble(condition);
-            return Math.abs(actual - value) < 0.01;
+    private enum Operator {
+        GREATER_EQUAL, LESS_EQUAL, GREATER, LESS, EQUAL
+    }
+
+    /**
+     * {@code >=10}, {@code <=10}, {@code >10}, {@code <10}, {@code ==10}, {@code =10} or {@code 10};
+     * an invalid number counts as 0 and equality allows a difference below 0.01
+     */
+    private record Comparison(Operator operator, double value) {
+        static Comparison parse(String condition) {
+            condition = condition.trim();
+
+            if (condition.startsWith(">=")) {
+                return new Comparison(Operator.GREATER_EQUAL, parseDouble(condition.substring(2)));
+            } else if (condition.startsWith("<=")) {
+                return new Comparison(Operator.LESS_EQUAL, parseDouble(condition.substring(2)));
+            } else if (condition.startsWith(">")) {
+                return new Comparison(Operator.GREATER, parseDouble(condition.substring(1)));
+            } else if (condition.startsWith("<")) {
+                return new Comparison(Operator.LESS, parseDouble(condition.substring(1)));
+            } else if (condition.startsWith("==")) {
+                return new Comparison(Operator.EQUAL, parseDouble(condition.substring(2)));
+            } else if (condition.startsWith("=")) {
+                return new Comparison(Operator.EQUAL, parseDouble(condition.substring(1)));
+            }
+            return new Comparison(Operator.EQUAL, parseDouble(condition));
+        }
+
+        boolean test(double actual) {
+            return switch (operator) {
+                case GREATER_EQUAL -> actual >= value;
+                case LESS_EQUAL -> actual <= value;
+                case GREATER -> actual > value;
+                case LESS -> actual < value;
+                case EQUAL -> Math.abs(actual - value) < 0.01;
+            };
         }
     }
 
@@ -274,4 +601,4 @@ public class ConditionEvaluator {
             return 0;
         }
     }
-}
\ No newline at end of file
+}
@@ -12,22 +12,32 @@ import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.jetbrains.annotations.NotNull;
 import org.jspecify.annotations.NonNull;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.net.HttpURLConnection;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 
 public class CustomCommandManager {
+    /**
+     * How long to keep reading a host command's output after it was killed or exited
+     */
+    private static final long OUTPUT_GRACE_MILLIS = 1000;
+
     private final CommandBundle plugin;
     private final File commandsFile;
     private final File commandsDirectory;
@@ -36,12 +46,34 @@ public class CustomCommandManager {
     private boolean autoLoadCommands = false;
     private final Map<String, List<String>> customCommands = new HashMap<>();
     private final Map<String, Map<String, List<String>>> subCommands = new HashMap<>();
+    private final Map<String, CompiledBundle> compiledCommands = new HashMap<>();
+    private final Map<String, Map<String, CompiledBundle>> compiledSubCommands = new HashMap<>();
     private final Map<String, String> commandPermissions = new HashMap<>();
+    private final Map<String, BundleSettings> commandSettings = new HashMap<>();
+    /**
+     * Cooldown and rate limit state of the commands that have any
+     */
+    private final Map<String, BundleThrottle> throttles = new HashMap<>();
     private final Map<String, CustomCommand> registeredCommands = new HashMap<>();
     private final VariableManager variableManager;
     private final Set<String> blacklistedCommands = new HashSet<>();
     private boolean hostCommandsEnabled = false;
     private boolean webhooksEnabled = false;
+    private final ExecutorService hostCommandExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private Semaphore hostCommandPermits = new Semaphore(4);
+    private long hostCommandTimeoutSeconds = 30;
+    private long maxLoopRangeSize = 1000000;
+    /**
+     * Invocations that are waiting for a delay, a result or the next tick, by id and indexed per player and command
+     */
+    private final Map<Integer, BundleExecution> runningBundles = new LinkedHashMap<>();
+    private final Map<UUID, Set<BundleExecution>> runningByPlayer = new HashMap<>();
+    private final Map<String, Set<BundleExecution>> runningByCommand = new HashMap<>();
+    private int nextExecutionId = 1;
+    private final BundleScheduler scheduler;
+    private final ItemCountCache itemCounts = new ItemCountCache();
+    private WebhookClient webhookClient;
+    private VariableStore variableStore;
 
     public CustomCommandManager(CommandBundle plugin) {
         this.plugin = plugin;
@@ -49,7 +81,11 @@ public class CustomCommandManager {
         this.commandsDirectory = new File(plugin.getDataFolder(), "commands");
         this.configFile = new File(plugin.getDataFolder(), "config.yml");
         this.variableManager = new VariableManager();
+        this.scheduler = new BundleScheduler(plugin);
         loadConfig();
+        scheduler.start();
+        Bukkit.getPluginManager().registerEvents(new BundleQuitListener(this), plugin);
+        Bukkit.getPluginManager().registerEvents(itemCounts, plugin);
         loadCommands();
     }
 
@@ -64,6 +100,28 @@ public class CustomCommandManager {
 
         hostCommandsEnabled = config.getBoolean("host-commands-enabled", false);
         webhooksEnabled = config.getBoolean("webhooks-enabled", false);
+        hostCommandTimeoutSeconds = config.getLong("host-command-timeout", 30);
+        hostCommandPermits = new Semaphore(Math.max(1, config.getInt("host-command-max-concurrent", 4)));
+
+        scheduler.setBudget(config.getDouble("bundle-tick-budget", 10));
+        MathEvaluator.setMaxRangeSize(config.getLong("math-max-range-size", 100000));
+        maxLoopRangeSize = config.getLong("foreach-max-range-size", 1000000);
+        itemCounts.clear();
+        ConditionEvaluator.setItemCountCache(config.getBoolean("item-count-cache", true) ? itemCounts : null);
+
+        if (webhookClient != null) {
+            webhookClient.shutdown();
+        }
+        webhookClient = new WebhookClient(plugin.getLogger(),
+                Duration.ofSeconds(config.getLong("webhook-connect-timeout", 5)),
+                Duration.ofSeconds(config.getLong("webhook-request-timeout", 10)),
+                config.getInt("webhook-max-per-host", 8),
+                config.getInt("webhook-max-queued", 1000),
+                config.getLong("webhook-max-body-size", 1048576));
+
+        if (variableStore == null && config.getBoolean("variables-persist", true)) {
+            openVariableStore(config);
+        }
 
 
         defaultCommandsFileName = config.getString("default-commands-file", "commands.yml");
@@ -72,10 +130,37 @@ public class CustomCommandManager {
         autoLoadCommands = config.getBoolean("auto-load-commands", false);
     }
 
+    private void openVariableStore(FileConfiguration config) {
+        VariableStore.FsyncPolicy fsyncPolicy;
+        try {
+            fsyncPolicy = VariableStore.FsyncPolicy.valueOf(config.getString("variables-fsync", "interval").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("Unknown variables-fsync value, using 'interval'");
+            fsyncPolicy = VariableStore.FsyncPolicy.INTERVAL;
+        }
+
+        VariableStore store = new VariableStore(new File(plugin.getDataFolder(), "variables"),
+                config.getLong("variables-flush-interval", 1000),
+                fsyncPolicy,
+                config.getLong("variables-snapshot-interval", 300),
+                plugin.getLogger());
+        try {
+            store.open(variableManager);
+            variableStore = store;
+            new PlayerVariableListener(plugin, variableManager, store, config.getLong("variables-evict-delay", 300)).start();
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to load stored variables, they will not be saved this session: " + e.getMessage());
+        }
+    }
+
     public void loadCommands() {
         customCommands.clear();
         subCommands.clear();
         commandPermissions.clear();
+        commandSettings.clear();
+        throttles.clear();
+        compiledCommands.clear();
+        compiledSubCommands.clear();
 
 
         if (!commandsDirectory.exists()) {
@@ -140,7 +225,18 @@ public class CustomCommandManager {
                     }
 
                     List<String> actions = config.getStringList("commands." + cmdName + ".actions");
+                    ConfigurationSection commandSection = commandsSection.getConfigurationSection(cmdName);
+                    BundleSettings settings = BundleSettings.load(commandSection);
+                    if (BundleSettings.hasInvalidRateLimit(commandSection, settings)) {
+                        plugin.getLogger().warning("Ignoring rate-limit of command '" + cmdName + "', expected <uses>/<seconds>");
+                    }
                     customCommands.put(cmdName.toLowerCase(), actions);
+                    commandSettings.put(cmdName.toLowerCase(), settings);
+                    BundleThrottle throttle = BundleThrottle.of(settings);
+                    if (throttle != null) {
+                        throttles.put(cmdName.toLowerCase(), throttle);
+                    }
+                    compiledCommands.put(cmdName.toLowerCase(), CompiledBundle.compile(actions, settings));
 
 
                     String permission = config.getString("commands." + cmdName + ".permission");
@@ -153,11 +249,14 @@ public class CustomCommandManager {
                         ConfigurationSection subCmdSection = config.getConfigurationSection("commands." + cmdName + ".subcommands");
                         if (subCmdSection != null) {
                             Map<String, List<String>> subs = new HashMap<>();
+                            Map<String, CompiledBundle> compiledSubs = new HashMap<>();
                             for (String subName : subCmdSection.getKeys(false)) {
                                 List<String> subActions = config.getStringList("commands." + cmdName + ".subcommands." + subName);
                                 subs.put(subName.toLowerCase(), subActions);
+                                compiledSubs.put(subName.toLowerCase(), CompiledBundle.compile(subActions, settings));
                             }
                             subCommands.put(cmdName.toLowerCase(), subs);
+                            compiledSubCommands.put(cmdName.toLowerCase(), compiledSubs);
                         }
                     }
                 }
@@ -185,6 +284,7 @@ public class CustomCommandManager {
             if (permission != null) {
                 saveConfig.set("commands." + entry.getKey() + ".permission", permission);
             }
+            getSettings(entry.getKey()).save(saveConfig, "commands." + entry.getKey());
 
             Map<String, List<String>> subs = subCommands.get(entry.getKey());
             if (subs != null && !subs.isEmpty()) {
@@ -209,6 +309,7 @@ public class CustomCommandManager {
         }
 
         customCommands.put(commandName, new ArrayList<>(actions));
+        invalidateCompiled(commandName);
         saveCommands();
         registerCommand(commandName);
         return true;
@@ -224,6 +325,10 @@ public class CustomCommandManager {
         customCommands.remove(commandName);
         subCommands.remove(commandName);
         commandPermissions.remove(commandName);
+        commandSettings.remove(commandName);
+        throttles.remove(commandName);
+        invalidateCompiled(commandName);
+        cancelRunningBundles(commandName);
         unregisterCommand(commandName);
         saveCommands();
         return true;
@@ -263,6 +368,8 @@ public class CustomCommandManager {
                 return false;
         }
 
+        compiledCommands.remove(commandName);
+        cancelRunningBundles(commandName);
         saveCommands();
         return true;
     }
@@ -277,10 +384,48 @@ public class CustomCommandManager {
 
         subCommands.computeIfAbsent(commandName, k -> new HashMap<>())
                 .put(subCommandName, new ArrayList<>(actions));
+        Map<String, CompiledBundle> compiledSubs = compiledSubCommands.get(commandName);
+        if (compiledSubs != null) {
+            compiledSubs.remove(subCommandName);
+        }
         saveCommands();
         return true;
     }
 
+    /**
+     * Drop the compiled form of a command and all of its sub-commands.
+     * They are rebuilt from the raw action lists on next use.
+     */
+    private void invalidateCompiled(String commandName) {
+        compiledCommands.remove(commandName);
+        compiledSubCommands.remove(commandName);
+    }
+
+    private CompiledBundle getCompiledCommand(String commandName) {
+        List<String> actions = customCommands.get(commandName);
+        if (actions == null) {
+            return null;
+        }
+        return compiledCommands.computeIfAbsent(commandName, k -> CompiledBundle.compile(actions, getSettings(commandName)));
+    }
+
+    private CompiledBundle getCompiledSubCommand(String commandName, String subCommandName) {
+        Map<String, List<String>> subs = subCommands.get(commandName);
+        if (subs == null) {
+            return null;
+        }
+        List<String> actions = subs.get(subCommandName);
+        if (actions == null) {
+            return null;
+        }
+        return compiledSubCommands.computeIfAbsent(commandName, k -> new HashMap<>())
+                .computeIfAbsent(subCommandName, k -> CompiledBundle.compile(actions, getSettings(commandName)));
+    }
+
+    private BundleSettings getSettings(String commandName) {
+        return commandSettings.getOrDefault(commandName, BundleSettings.DEFAULT);
+    }
+
     public boolean setCommandPermission(String commandName, String permission) {
         commandName = commandName.toLowerCase();
 
@@ -477,195 +622,485 @@ public class CustomCommandManager {
         }
     }
 
-    public void executeCustomCommand(CommandSender sender, String commandName, String[] args) {
+    /**
+     * Run a bundle for the sender
+     *
+     * @return handle of the invocation, already done if the bundle ran to its end right away;
+     * null if nothing was run
+     */
+    public RunningBundle executeCustomCommand(CommandSender sender, String commandName, String[] args) {
         commandName = commandName.toLowerCase();
 
 
         String permission = commandPermissions.get(commandName);
         if (permission != null && !sender.hasPermission(permission)) {
             sender.sendMessage(Component.text("You don't have permission to use this command.", NamedTextColor.RED));
-            return;
+            return null;
+        }
+
+        BundleThrottle throttle = throttles.get(commandName);
+        if (throttle != null) {
+            BundleThrottle.Rejection rejection = throttle.tryAcquire(
+                    sender instanceof Player player ? player.getUniqueId() : null, System.nanoTime());
+            if (rejection != null) {
+                String wait = formatWait(rejection.waitNanos());
+                sender.sendMessage(Component.text(rejection.cooldown()
+                        ? "You must wait " + wait + " before using /" + commandName + " again."
+                        : "You are using /" + commandName + " too often, try again in " + wait + ".", NamedTextColor.RED));
+                return null;
+            }
         }
 
 
-        List<String> actions;
+        CompiledBundle bundle = null;
+        String label = commandName;
         if (args.length > 0) {
-            Map<String, List<String>> subs = subCommands.get(commandName);
-            if (subs != null && subs.containsKey(args[0].toLowerCase())) {
-                actions = subs.get(args[0].toLowerCase());
-            } else {
-                actions = customCommands.get(commandName);
-            }
-        } else {
-            actions = customCommands.get(commandName);
+            bundle = getCompiledSubCommand(commandName, args[0].toLowerCase());
+            label = commandName + " " + args[0].toLowerCase();
+        }
+        if (bundle == null) {
+            bundle = getCompiledCommand(commandName);
+            label = commandName;
         }
 
-        if (actions == null || actions.isEmpty()) {
-            return;
+        if (bundle == null || bundle.isEmpty()) {
+            return null;
         }
 
-        executeActions(sender, actions, args);
+        return executeActions(sender, commandName, label, bundle, args);
     }
 
-    private void executeActions(CommandSender sender, List<String> actions, String[] args) {
-        int currentDelay = 0;
-        List<CommandAction> parsedActions = actions.stream()
-                .map(CommandAction::new)
-                .collect(Collectors.toList());
-
+    /**
+     * Wait time rounded up to tenths of a second below 10 seconds, to whole seconds above
+     */
+    private static String formatWait(long nanos) {
+        double seconds = nanos / 1_000_000_000.0;
+        if (seconds < 10) {
+            return String.format(Locale.ROOT, "%.1fs", Math.ceil(seconds * 10) / 10);
+        }
+        return (long) Math.ceil(seconds) + "s";
+    }
 
-        List<CommandAction> randomActions = parsedActions.stream()
-                .filter(CommandAction::isRandom)
-                .collect(Collectors.toList());
+    private BundleExecution executeActions(CommandSender sender, String commandName, String label, CompiledBundle bundle, String[] args) {
+        List<CommandAction> parsedActions = bundle.getActions();
 
-        if (!randomActions.isEmpty()) {
-            parsedActions.removeAll(randomActions);
-            CommandAction selected = selectRandomAction(randomActions);
+        if (bundle.hasRandomActions()) {
+            CommandAction selected = selectRandomAction(bundle);
             if (selected != null) {
+                parsedActions = new ArrayList<>(parsedActions);
                 parsedActions.add(selected);
             }
         }
 
-        ConditionChainContext chainContext = new ConditionChainContext();
+        BundleExecution execution = new BundleExecution(nextExecutionId++, commandName, label, bundle, parsedActions,
+                new PlaceholderScope(sender, args, bundle.getSettings()));
+        execution.resume();
+        return execution;
+    }
 
-        for (CommandAction action : parsedActions) {
-            int delay = currentDelay + action.getDelay();
+    /**
+     * Handle of one bundle invocation
+     */
+    public interface RunningBundle {
+        int getId();
 
-            if (delay > 0) {
-                new BukkitRunnable() {
-                    @Override
-                    public void run() {
-                        executeSingleAction(sender, action, args, chainContext);
-                    }
-                }.runTaskLater(plugin, delay * 20L);
-                currentDelay = delay;
-            } else {
-                executeSingleAction(sender, action, args, chainContext);
+        /**
+         * Command the bundle belongs to, without sub-command
+         */
+        String getCommandName();
+
+        /**
+         * Command and sub-command as invoked
+         */
+        String getLabel();
+
+        CommandSender getSender();
+
+        /**
+         * Number of actions started so far
+         */
+        int getPosition();
+
+        int getSize();
+
+        /**
+         * Items done by the foreach the bundle is in, or -1 if it is not in a loop spread over ticks
+         */
+        long getLoopProgress();
+
+        boolean isDone();
+
+        /**
+         * Stop the bundle before its next action or loop item. Main thread only.
+         */
+        void cancel();
+    }
+
+    /**
+     * Bundles that are still running, oldest first
+     */
+    public List<RunningBundle> getRunningBundles() {
+        return new ArrayList<>(runningBundles.values());
+    }
+
+    public List<RunningBundle> getRunningBundles(UUID playerId) {
+        return new ArrayList<>(runningByPlayer.getOrDefault(playerId, Set.of()));
+    }
+
+    public List<RunningBundle> getRunningBundlesOf(String commandName) {
+        return new ArrayList<>(runningByCommand.getOrDefault(commandName.toLowerCase(), Set.of()));
+    }
+
+    public RunningBundle getRunningBundle(int id) {
+        return runningBundles.get(id);
+    }
+
+    /**
+     * Cancel the running bundles of a player, e.g. when they leave
+     *
+     * @return number of bundles cancelled
+     */
+    public int cancelRunningBundles(UUID playerId) {
+        return cancelAll(runningByPlayer.get(playerId));
+    }
+
+    /**
+     * Cancel the running invocations of a command and its sub-commands
+     *
+     * @return number of bundles cancelled
+     */
+    public int cancelRunningBundles(String commandName) {
+        return cancelAll(runningByCommand.get(commandName.toLowerCase()));
+    }
+
+    public int cancelRunningBundles(Predicate<RunningBundle> filter) {
+        List<BundleExecution> matching = new ArrayList<>();
+        for (BundleExecution execution : runningBundles.values()) {
+            if (filter.test(execution)) {
+                matching.add(execution);
             }
         }
+        return cancelAll(matching);
+    }
+
+    private int cancelAll(Collection<BundleExecution> executions) {
+        if (executions == null) {
+            return 0;
+        }
+        List<BundleExecution> copy = new ArrayList<>(executions);
+        for (BundleExecution execution : copy) {
+            execution.cancel();
+        }
+        return copy.size();
     }
 
-    private void executeSingleAction(CommandSender sender, CommandAction action, String[] args, ConditionChainContext chain) {
+    private void track(BundleExecution execution) {
+        if (runningBundles.putIfAbsent(execution.id, execution) != null) {
+            return;
+        }
+        runningByCommand.computeIfAbsent(execution.commandName, k -> new LinkedHashSet<>()).add(execution);
+        if (execution.scope.sender instanceof Player player) {
+            runningByPlayer.computeIfAbsent(player.getUniqueId(), k -> new LinkedHashSet<>()).add(execution);
+        }
+    }
+
+    private void untrack(BundleExecution execution) {
+        if (runningBundles.remove(execution.id) == null) {
+            return;
+        }
+        removeIndexed(runningByCommand, execution.commandName, execution);
+        if (execution.scope.sender instanceof Player player) {
+            removeIndexed(runningByPlayer, player.getUniqueId(), execution);
+        }
+    }
+
+    private static <K> void removeIndexed(Map<K, Set<BundleExecution>> index, K key, BundleExecution execution) {
+        Set<BundleExecution> executions = index.get(key);
+        if (executions != null && executions.remove(execution) && executions.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Cursor over the actions of one bundle invocation.
+     * Runs actions on the main thread until one has to wait for a delay or a host command,
+     * then picks up at the next action once that is done, so later actions keep their order.
+     * While it waits it is tracked as a {@link RunningBundle}.
+     */
+    private final class BundleExecution implements RunningBundle {
+        private final int id;
+        private final String commandName;
+        private final String label;
+        private final CompiledBundle bundle;
+        private final List<CommandAction> actions;
+        private final PlaceholderScope scope;
+        private ConditionChainContext chain = ConditionChainContext.INITIAL;
+        private int cursor;
+        private int delayed = -1;
+        /**
+         * Delays of jumped-over actions still to be waited before the next action
+         */
+        private long skippedDelay;
+        private boolean suspended;
+        private boolean cancelled;
+        private BundleScheduler.Timer delayTimer;
+        private ForeachLoop loop;
+
+        private BundleExecution(int id, String commandName, String label, CompiledBundle bundle,
+                                List<CommandAction> actions, PlaceholderScope scope) {
+            this.id = id;
+            this.commandName = commandName;
+            this.label = label;
+            this.bundle = bundle;
+            this.actions = actions;
+            this.scope = scope;
+        }
+
+        /**
+         * Run actions until the bundle ends, waits, or the scheduler's budget for this tick is used up
+         */
+        private void resume() {
+            if (cancelled) {
+                return;
+            }
+            suspended = false;
+            delayTimer = null;
+            scheduler.begin();
+            try {
+                while (cursor < actions.size() && !cancelled) {
+                    if (!scheduler.hasTime()) {
+                        scheduler.submit(this::resumeLater);
+                        return;
+                    }
+                    if (skippedDelay > 0) {
+                        delayTimer = scheduler.schedule(this::resumeLater, skippedDelay);
+                        skippedDelay = 0;
+                        return;
+                    }
+                    CommandAction action = actions.get(cursor);
+
+                    if (action.getDelayTicks() > 0 && delayed != cursor) {
+                        delayed = cursor;
+                        delayTimer = scheduler.schedule(this::resumeLater, action.getDelayTicks());
+                        return;
+                    }
+
+                    cursor++;
+                    executeSingleAction(this, action);
+                    if (chain.isInChain() && !chain.isBranchActive()) {
+                        // the lines up to the next condition would only be skipped; their delays are still waited,
+                        // so later actions run at the same time as if each skipped line had been visited
+                        int skipFrom = cursor;
+                        cursor = bundle.getSkipTarget(cursor - 1, chain.isBranchMatched());
+                        skippedDelay += bundle.getDelayTicks(skipFrom, cursor);
+                    }
+                    if (suspended) {
+                        return;
+                    }
+                }
+            } finally {
+                scheduler.end();
+                if (isDone()) {
+                    untrack(this);
+                } else {
+                    track(this);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            if (delayTimer != null) {
+                delayTimer.cancel();
+                delayTimer = null;
+            }
+            if (loop != null) {
+                loop.cancel();
+                loop = null;
+            }
+            untrack(this);
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled || (cursor >= actions.size() && !suspended);
+        }
+
+        @Override
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public String getCommandName() {
+            return commandName;
+        }
+
+        @Override
+        public String getLabel() {
+            return label;
+        }
+
+        @Override
+        public CommandSender getSender() {
+            return scope.sender;
+        }
+
+        @Override
+        public int getPosition() {
+            return cursor;
+        }
+
+        @Override
+        public int getSize() {
+            return actions.size();
+        }
+
+        @Override
+        public long getLoopProgress() {
+            return loop != null ? loop.getCompleted() : -1;
+        }
+
+        /**
+         * Whether results that arrive for this invocation should be dropped: it was cancelled, or the player who
+         * started it has left (results of fire-and-forget webhooks may arrive after the bundle finished)
+         */
+        private boolean isAbandoned() {
+            return cancelled || (scope.sender instanceof Player player && !player.isOnline());
+        }
+
+        /**
+         * Continue in a later tick, where cached placeholder values may be outdated
+         */
+        private void resumeLater() {
+            scope.invalidate();
+            resume();
+        }
+
+        /**
+         * Stop after the current action; the caller is responsible for calling {@link #resume()} on the main thread
+         */
+        private void suspend() {
+            suspended = true;
+        }
+
+        /**
+         * Finish a suspended action on the main thread in a later tick, then continue unless it suspended again
+         */
+        private void continueWith(Runnable step) {
+            if (cancelled) {
+                return;
+            }
+            scope.invalidate();
+            suspended = false;
+            step.run();
+            if (!suspended) {
+                resume();
+            }
+        }
+    }
 
+    private void executeSingleAction(BundleExecution execution, CommandAction action) {
+        PlaceholderScope scope = execution.scope;
+        ConditionChainContext chain = execution.chain;
+        CommandSender sender = scope.sender;
 
         if (action.isBranchStart()) {
-            chain.inChain = true;
-            chain.branchMatched = false;
-            chain.branchActive = false;
+            execution.chain = chain.withInChain(true).withBranchMatched(false).withBranchActive(false);
             return;
         }
         if (action.isBranchEnd()) {
-            chain.inChain = false;
-            chain.branchMatched = false;
-            chain.branchActive = false;
+            execution.chain = chain.withInChain(false).withBranchMatched(false).withBranchActive(false);
             return;
         }
 
 
         if (action.isCondStart()) {
-            chain.inChain = true;
-            chain.branchMatched = false;
-            chain.branchActive = false;
-
-            if (action.getConditionLogic() != null) {
-                chain.conditionLogic = action.getConditionLogic();
-            } else {
-                chain.conditionLogic = "OR";
-            }
-            chain.isNewChain = true;
+            execution.chain = chain.withInChain(true).withBranchMatched(false).withBranchActive(false)
+                    .withConditionLogic(action.getConditionLogic()).withNewChain(true);
             return;
         }
         if (action.isCondEnd()) {
-
-
-            if (chain.branchActive) {
-                chain.branchMatched = true;
+            if (chain.isBranchActive()) {
+                chain = chain.withBranchMatched(true);
             }
-            chain.conditionLogic = "OR";
+            execution.chain = chain.withConditionLogic("OR");
             return;
         }
 
         if (action.hasElseIf()) {
-            if (!chain.inChain) {
+            if (!chain.isInChain()) {
                 return;
             }
-            if (chain.branchMatched) {
-                chain.branchActive = false;
+            if (chain.isBranchMatched()) {
+                execution.chain = chain.withBranchActive(false);
                 return;
             }
-            boolean result = ConditionEvaluator.evaluate(sender, action.getElseIfCondition(), variableManager);
+            boolean result = action.getCompiledElseIfCondition().test(sender, variableManager);
             if (plugin.getConfig().getBoolean("debug", false)) {
-                plugin.getLogger().info("ELSE IF: " + action.getElseIfCondition() + " -> " + result + " (branchMatched=" + chain.branchMatched + ")");
+                plugin.getLogger().info("ELSE IF: " + action.getElseIfCondition() + " -> " + result + " (branchMatched=" + chain.isBranchMatched() + ")");
             }
-            chain.branchActive = result;
+            chain = chain.withBranchActive(result);
             if (result) {
-                chain.branchMatched = true;
+                chain = chain.withBranchMatched(true);
             }
         } else if (action.hasCondition()) {
 
-            if (action.isContinuedCondition() && chain.inChain) {
-
-                boolean result = ConditionEvaluator.evaluate(sender, action.getCondition(), variableManager);
+            if (action.isContinuedCondition() && chain.isInChain()) {
 
-                if (chain.isNewChain) {
-                    chain.branchActive = result;
-                    chain.isNewChain = false;
+                if (chain.isNewChain()) {
+                    boolean result = action.getCompiledCondition().test(sender, variableManager);
+                    chain = chain.withBranchActive(result).withNewChain(false);
                     if (plugin.getConfig().getBoolean("debug", false)) {
-                        plugin.getLogger().info("NEW CHAIN IF (" + chain.conditionLogic + "): " + action.getCondition() + " -> " + result);
+                        plugin.getLogger().info("NEW CHAIN IF (" + chain.getConditionLogic() + "): " + action.getCondition() + " -> " + result);
                     }
-                } else if ("AND".equals(chain.conditionLogic)) {
-
-                    chain.branchActive = chain.branchActive && result;
+                } else if ("AND".equals(chain.getConditionLogic())) {
+                    // once the chain is decided the remaining conditions are not tested
+                    chain = chain.withBranchActive(chain.isBranchActive() && action.getCompiledCondition().test(sender, variableManager));
                     if (plugin.getConfig().getBoolean("debug", false)) {
-                        plugin.getLogger().info("CONTINUED IF (AND): " + action.getCondition() + " -> " + result + " (newActive=" + chain.branchActive + ")");
+                        plugin.getLogger().info("CONTINUED IF (AND): " + action.getCondition() + " (newActive=" + chain.isBranchActive() + ")");
                     }
                 } else {
-
-                    chain.branchActive = chain.branchActive || result;
+                    chain = chain.withBranchActive(chain.isBranchActive() || action.getCompiledCondition().test(sender, variableManager));
                     if (plugin.getConfig().getBoolean("debug", false)) {
-                        plugin.getLogger().info("CONTINUED IF (OR): " + action.getCondition() + " -> " + result + " (newActive=" + chain.branchActive + ")");
+                        plugin.getLogger().info("CONTINUED IF (OR): " + action.getCondition() + " (newActive=" + chain.isBranchActive() + ")");
                     }
                 }
 
 
-                if (chain.branchActive) {
-                    chain.branchMatched = true;
+                if (chain.isBranchActive()) {
+                    chain = chain.withBranchMatched(true);
                 }
             } else {
-
-                chain.inChain = true;
-                chain.branchMatched = false;
-                boolean result = ConditionEvaluator.evaluate(sender, action.getCondition(), variableManager);
+                boolean result = action.getCompiledCondition().test(sender, variableManager);
                 if (plugin.getConfig().getBoolean("debug", false)) {
                     plugin.getLogger().info("NEW IF: " + action.getCondition() + " -> " + result);
                 }
-                chain.branchActive = result;
-
-                if (result) {
-
-
-                }
-                chain.isNewChain = false;
+                chain = chain.withInChain(true).withBranchMatched(false).withBranchActive(result).withNewChain(false);
             }
         } else if (action.hasElse()) {
-            if (!chain.inChain) {
+            if (!chain.isInChain()) {
                 return;
             }
-            if (chain.branchMatched) {
-                chain.branchActive = false;
+            if (chain.isBranchMatched()) {
+                execution.chain = chain.withBranchActive(false);
                 return;
             }
-            chain.branchActive = true;
-            chain.branchMatched = true;
+            chain = chain.withBranchActive(true).withBranchMatched(true);
         } else {
-            if (chain.inChain && !chain.branchActive) {
+            if (chain.isInChain() && !chain.isBranchActive()) {
                 return;
             }
 
-            if (chain.inChain && !chain.branchMatched) {
-                chain.branchMatched = true;
+            if (chain.isInChain() && !chain.isBranchMatched()) {
+                chain = chain.withBranchMatched(true);
             }
         }
+        execution.chain = chain;
 
 
         if (action.getProcessedAction().
@@ -678,124 +1113,213 @@ public class CustomCommandManager {
 
         if (action.isMessage()) {
             String colors = action.getMessageColor();
-            String text = action.getMessageText();
             String targetPlayer = action.getMessagePlayer();
 
-            if (text != null) {
-                text = replacePlaceholders(sender, text, args);
-
-
-                CommandSender messageSender = sender;
-                if (targetPlayer != null && !targetPlayer.isEmpty()) {
-
-                    String resolvedPlayerName = replacePlaceholders(sender, targetPlayer, args);
-                    Player targetPlayerObj = Bukkit.getPlayer(resolvedPlayerName);
-                    if (targetPlayerObj != null) {
-                        messageSender = targetPlayerObj;
-                    } else {
-                        plugin.getLogger().warning("Player not found: " + resolvedPlayerName);
-                        return;
+            if (action.getMessageText() != null) {
+                boolean targeted = targetPlayer != null && !targetPlayer.isEmpty();
+                List<PlaceholderTemplate> templates = targeted
+                        ? List.of(action.getMessageTextTemplate(), action.getMessagePlayerTemplate())
+                        : List.of(action.getMessageTextTemplate());
+
+                renderTemplates(execution, templates, rendered -> {
+                    CommandSender messageSender = sender;
+                    if (targeted) {
+                        String resolvedPlayerName = rendered[1];
+                        Player targetPlayerObj = Bukkit.getPlayer(resolvedPlayerName);
+                        if (targetPlayerObj != null) {
+                            messageSender = targetPlayerObj;
+                        } else {
+                            plugin.getLogger().warning("Player not found: " + resolvedPlayerName);
+                            return;
+                        }
                     }
-                }
 
-                sendColoredMessage(messageSender, colors, text);
+                    sendColoredMessage(messageSender, colors, rendered[0]);
+                });
             }
             return;
         }
 
         if (action.isLoop()) {
-            executeLoopAction(sender, action, args);
+            executeLoopAction(execution, action);
             return;
         }
 
 
         if (action.isSetVariable()) {
-            String varName = action.getSetVariableName();
-            String varValue = action.getSetVariableValue();
-
-            if (varName != null && varValue != null) {
+            if (action.getSetVariableName() != null && action.getSetVariableValue() != null) {
+                List<PlaceholderTemplate> templates = List.of(action.getSetVariableNameTemplate(), action.getSetVariableValueTemplate());
 
-                varName = replacePlaceholders(sender, varName, args);
-                varValue = replacePlaceholders(sender, varValue, args);
+                renderTemplates(execution, templates, rendered -> {
+                    String varName = rendered[0];
+                    String varValue = rendered[1];
 
-
-                if (sender instanceof Player player) {
-                    variableManager.setPlayer(player.getUniqueId(), varName, varValue);
-                } else {
-                    variableManager.setGlobal(varName, varValue);
-                }
+                    if (sender instanceof Player player) {
+                        variableManager.setPlayer(player.getUniqueId(), varName, varValue);
+                    } else {
+                        variableManager.setGlobal(varName, varValue);
+                    }
 
 
-                if (!action.isSuppressVariableOutput()) {
-                    sender.sendMessage(Component.text("Variable set: ", NamedTextColor.GREEN)
-                            .append(Component.text(varName, NamedTextColor.YELLOW))
-                            .append(Component.text(" = ", NamedTextColor.GRAY))
-                            .append(Component.text(varValue, NamedTextColor.WHITE)));
-                }
+                    if (!action.isSuppressVariableOutput()) {
+                        sender.sendMessage(Component.text("Variable set: ", NamedTextColor.GREEN)
+                                .append(Component.text(varName, NamedTextColor.YELLOW))
+                                .append(Component.text(" = ", NamedTextColor.GRAY))
+                                .append(Component.text(varValue, NamedTextColor.WHITE)));
+                    }
+                });
             }
             return;
         }
 
-        String processedAction = action.getProcessedAction();
-
-        processedAction =
-
-                replacePlaceholders(sender, processedAction, args);
-
         if (action.isHostCommand()) {
             String storeVar = action.getHostStoreVariable();
-            if (storeVar != null && !storeVar.isEmpty()) {
-                storeVar = replacePlaceholders(sender, storeVar, args);
-            }
-            executeHostCommand(sender, processedAction, storeVar, action.isSuppressCommandOutput());
+            boolean storing = storeVar != null && !storeVar.isEmpty();
+            List<PlaceholderTemplate> templates = storing
+                    ? List.of(action.getProcessedTemplate(), action.getHostStoreVariableTemplate())
+                    : List.of(action.getProcessedTemplate());
+
+            renderTemplates(execution, templates, rendered ->
+                    executeHostCommand(execution, rendered[0], storing ? rendered[1] : storeVar, action.isSuppressCommandOutput()));
         } else if (action.isWebhook()) {
             WebhookData webhookData = action.getWebhookData();
-            if (webhookData != null) {
+            if (webhookData == null) {
+                return;
+            }
 
-                String url = replacePlaceholders(sender, webhookData.getUrl(), args);
-                String body = replacePlaceholders(sender, webhookData.getBody(), args);
+            List<String> headerNames = new ArrayList<>(webhookData.getHeaders().keySet());
+            List<PlaceholderTemplate> templates = new ArrayList<>(headerNames.size() + 4);
+            templates.add(action.getProcessedTemplate());
+            templates.add(webhookData.getUrlTemplate());
+            templates.add(webhookData.getBodyTemplate());
+            for (String headerName : headerNames) {
+                templates.add(webhookData.getHeaderTemplates().get(headerName));
+            }
+            if (webhookData.shouldStoreResponse()) {
+                templates.add(webhookData.getStoreVariableTemplate());
+            }
+
+            renderTemplates(execution, templates, rendered -> {
+                String url = rendered[1];
+                String body = rendered[2];
 
 
                 Map<String, String> processedHeaders = new HashMap<>();
-                for (Map.Entry<String, String> entry : webhookData.getHeaders().entrySet()) {
-                    String headerValue = replacePlaceholders(sender, entry.getValue(), args);
-                    processedHeaders.put(entry.getKey(), headerValue);
+                for (int i = 0; i < headerNames.size(); i++) {
+                    processedHeaders.put(headerNames.get(i), rendered[3 + i]);
                 }
 
 
                 String processedVarName = null;
                 if (webhookData.shouldStoreResponse()) {
-                    processedVarName = replacePlaceholders(sender, webhookData.getStoreVariable(), args);
+                    processedVarName = rendered[3 + headerNames.size()];
                 }
 
-                executeWebhook(sender, webhookData, url, body, processedHeaders, processedVarName);
-            }
+                executeWebhook(execution, webhookData, url, body, processedHeaders, processedVarName, action.isAwaitWebhook());
+            });
         } else {
+            renderTemplates(execution, List.of(action.getProcessedTemplate()), rendered -> {
+                String processedAction = rendered[0];
 
+                if (processedAction.trim().isEmpty()) {
+                    plugin.getLogger().warning("Attempted to execute empty command - likely from failed @() substitution");
+                    sender.sendMessage(Component.text("Command execution failed - no output from command substitution", NamedTextColor.RED));
+                    return;
+                }
 
-            if (processedAction.trim().isEmpty()) {
-                plugin.getLogger().warning("Attempted to execute empty command - likely from failed @() substitution");
-                sender.sendMessage(Component.text("Command execution failed - no output from command substitution", NamedTextColor.RED));
-                return;
-            }
-
-            String baseCommand = processedAction.split(" ")[0].toLowerCase();
-            if (blacklistedCommands.contains(baseCommand)) {
-                plugin.getLogger().warning("Attempted to execute blacklisted command: " + baseCommand);
-                return;
-            }
+                String baseCommand = processedAction.split(" ")[0].toLowerCase();
+                if (blacklistedCommands.contains(baseCommand)) {
+                    plugin.getLogger().warning("Attempted to execute blacklisted command: " + baseCommand);
+                    return;
+                }
 
 
-            if (action.isSuppressCommandOutput()) {
-                executeCommandSilently(sender, processedAction, action.isConsoleCommand());
-            } else {
-                if (action.isConsoleCommand()) {
-                    Bukkit.dispatchCommand(Bukkit.getConsoleSender(), processedAction);
+                if (action.isSuppressCommandOutput()) {
+                    executeCommandSilently(sender, processedAction, action.isConsoleCommand());
                 } else {
-                    Bukkit.dispatchCommand(sender, processedAction);
+                    if (action.isConsoleCommand()) {
+                        Bukkit.dispatchCommand(Bukkit.getConsoleSender(), processedAction);
+                    } else {
+                        Bukkit.dispatchCommand(sender, processedAction);
+                    }
                 }
+                itemCounts.clear();
+                scope.invalidate();
+            });
+        }
+    }
+
+    /**
+     * Render the templates of one action in order and pass the results to {@code body}.
+     * If the bundle uses async substitution, the text before the {@code &()} pass is rendered first,
+     * every substitution found in it runs concurrently off the main thread, and the bundle is suspended
+     * until {@code body} has run on the main thread with the finished texts. Substitutions still running
+     * when the timeout is reached are interrupted, which kills their process and frees their permit.
+     */
+    private void renderTemplates(BundleExecution execution, List<PlaceholderTemplate> templates, Consumer<String[]> body) {
+        PlaceholderScope scope = execution.scope;
+        String[] rendered = new String[templates.size()];
+
+        if (!hostCommandsEnabled || !scope.settings.isAsyncSubstitution()) {
+            for (int i = 0; i < rendered.length; i++) {
+                rendered[i] = replacePlaceholders(scope, templates.get(i));
+            }
+            body.accept(rendered);
+            return;
+        }
+
+        Map<String, CompletableFuture<String>> substitutions = new LinkedHashMap<>();
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < rendered.length; i++) {
+            rendered[i] = templates.get(i).renderUntilSubstitution(scope, scope.args);
+            for (String command : PlaceholderTemplate.findSubstitutions(rendered[i])) {
+                substitutions.computeIfAbsent(command, c -> {
+                    CompletableFuture<String> result = new CompletableFuture<>();
+                    tasks.add(hostCommandExecutor.submit(() -> {
+                        try {
+                            result.complete(executeCommandSubstitution(c, hostCommandPermits, scope.settings));
+                        } catch (RuntimeException e) {
+                            result.completeExceptionally(e);
+                        }
+                    }));
+                    return result;
+                });
+            }
+        }
+
+        if (substitutions.isEmpty()) {
+            for (int i = 0; i < rendered.length; i++) {
+                rendered[i] = PlaceholderTemplate.finish(rendered[i], scope::substitute);
             }
+            body.accept(rendered);
+            return;
+        }
+
+        long timeoutSeconds = scope.settings.getSubstitutionTimeout();
+        String fallback = scope.settings.getSubstitutionFallback();
+        CompletableFuture<Void> all = CompletableFuture.allOf(substitutions.values().toArray(new CompletableFuture<?>[0]));
+        if (timeoutSeconds > 0) {
+            all.completeOnTimeout(null, timeoutSeconds + 1, TimeUnit.SECONDS);
         }
+        all.whenComplete((ignored, error) -> {
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+            scheduler.submit(() -> execution.continueWith(() -> {
+                for (int i = 0; i < rendered.length; i++) {
+                    rendered[i] = PlaceholderTemplate.finish(rendered[i], command -> {
+                        CompletableFuture<String> result = substitutions.get(command);
+                        if (result == null || !result.isDone() || result.isCompletedExceptionally()) {
+                            plugin.getLogger().warning("Command substitution not available, using fallback: " + command);
+                            return fallback;
+                        }
+                        return result.join();
+                    });
+                }
+                body.accept(rendered);
+            }));
+        });
+        execution.suspend();
     }
 
     /**
@@ -843,54 +1367,149 @@ public class CustomCommandManager {
      * Execute an action in a loop over a list
      * Supports: [foreach:list:variable]action
      * Example: [foreach:Player1,Player2,Player3:player]say Hello %player%
+     * Items that do not fit into the tick (see {@link ForeachLoop}) run in the following ticks.
      */
-    private void executeLoopAction(CommandSender sender, CommandAction action, String[] args) {
-        String listOutput = action.getLoopList();
-        String variable = action.getLoopVariable();
-        String actionTemplate = action.getProcessedAction();
-
-        if (listOutput == null || variable == null) {
+    private void executeLoopAction(BundleExecution execution, CommandAction action) {
+        PlaceholderScope scope = execution.scope;
+        if (action.getLoopList() == null || action.getLoopVariable() == null) {
             plugin.getLogger().warning("Invalid loop specification");
             return;
         }
 
-
-        listOutput = replacePlaceholders(sender, listOutput, args);
+        String listOutput = replacePlaceholders(scope, action.getLoopListTemplate());
 
         plugin.getLogger().fine("Loop list after placeholder replacement: '" + listOutput + "'");
 
 
-        String[] items;
-        if (listOutput.startsWith("@(")) {
+        Iterable<String> items;
+        if (action.isLoopRange()) {
+            MathEvaluator.Range range;
+            try {
+                range = MathEvaluator.parseRange(listOutput);
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("Invalid loop range '" + listOutput + "': " + e.getMessage());
+                return;
+            }
+            if (range.size() > maxLoopRangeSize) {
+                plugin.getLogger().warning("Loop range '" + listOutput + "' has more than " + maxLoopRangeSize + " values");
+                return;
+            }
+            items = range;
+            plugin.getLogger().fine("Loop will execute " + range.size() + " times");
+        } else if (listOutput.startsWith("@(")) {
 
-            items = listOutput.split("[,\\n]");
+            items = Arrays.asList(listOutput.split("[,\\n]"));
         } else {
 
-            items = listOutput.split(",");
+            items = Arrays.asList(listOutput.split(","));
         }
 
-        plugin.getLogger().fine("Loop will execute " + items.length + " times");
-
 
-        for (String item : items) {
-            item = item.trim();
-            if (item.isEmpty()) continue;
-
-            plugin.getLogger().fine("Processing loop item: '" + item + "'");
+        new ForeachLoop(execution, action, items.iterator()).start();
+    }
 
+    private void executeLoopItem(PlaceholderScope scope, CommandAction action, String item) {
+        item = item.trim();
+        if (item.isEmpty()) return;
 
-            String processedAction = actionTemplate.replace("%" + variable + "%", item);
+        plugin.getLogger().fine("Processing loop item: '" + item + "'");
 
 
-            processedAction = replacePlaceholders(sender, processedAction, args);
+        String processedAction = action.getLoopActionTemplate().render(scope, scope.args, item);
 
 
-            executeProcessedAction(sender, processedAction);
-        }
+        executeProcessedAction(scope.sender, processedAction);
+        itemCounts.clear();
+        scope.invalidate();
     }
 
     /**
-     * Execute a processed action string
+     * A foreach that runs as many items per tick as the bundle's batch size and tick budget and the scheduler's
+     * budget allow (always at least one) and continues on the next tick. Items run in list order, and the bundle stays
+     * suspended until the last one has run, so the actions after the loop see all of its effects.
+     */
+    private final class ForeachLoop implements Runnable {
+        private final BundleExecution execution;
+        private final CommandAction action;
+        private final Iterator<String> items;
+        private final int batchSize;
+        private final long budgetNanos;
+        private BundleScheduler.Timer nextBatch;
+        private long completed;
+        private boolean cancelled;
+
+        private ForeachLoop(BundleExecution execution, CommandAction action, Iterator<String> items) {
+            this.execution = execution;
+            this.action = action;
+            this.items = items;
+            this.batchSize = execution.scope.settings.getForeachBatchSize();
+            this.budgetNanos = (long) (execution.scope.settings.getForeachTickBudget() * 1_000_000);
+        }
+
+        /**
+         * Run the first batch right away and, if items are left, suspend the bundle until the rest has run
+         */
+        private void start() {
+            if (runBatch()) {
+                return;
+            }
+            execution.suspend();
+            execution.loop = this;
+            nextBatch = scheduler.schedule(this, 1);
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            execution.scope.invalidate();
+            if (runBatch()) {
+                execution.loop = null;
+                execution.resume();
+            } else {
+                nextBatch = scheduler.schedule(this, 1);
+            }
+        }
+
+        /**
+         * @return whether the loop is done
+         */
+        private boolean runBatch() {
+            long start = System.nanoTime();
+            int ran = 0;
+            while (items.hasNext()) {
+                if (ran > 0 && ((batchSize > 0 && ran >= batchSize)
+                        || (budgetNanos > 0 && System.nanoTime() - start >= budgetNanos) || !scheduler.hasTime())) {
+                    return false;
+                }
+                executeLoopItem(execution.scope, action, items.next());
+                completed++;
+                ran++;
+            }
+            return true;
+        }
+
+        /**
+         * Number of items that have run so far
+         */
+        private long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * Stop before the next item. The rest of the bundle does not run.
+         */
+        private void cancel() {
+            cancelled = true;
+            if (nextBatch != null) {
+                nextBatch.cancel();
+            }
+        }
+    }
+
+    /**
+     * Execute a processed action string
      */
     private void executeProcessedAction(CommandSender sender, String processedAction) {
 
@@ -908,328 +1527,398 @@ public class CustomCommandManager {
         Bukkit.dispatchCommand(sender, processedAction);
     }
 
-    private void executeHostCommand(CommandSender sender, String command, String storeVariable, boolean suppressOutput) {
+    /**
+     * Run a host command on a virtual thread so the server tick is never blocked.
+     * The bundle is suspended until the result has been applied back on the main thread.
+     */
+    private void executeHostCommand(BundleExecution execution, String command, String storeVariable, boolean suppressOutput) {
         if (!hostCommandsEnabled) {
             plugin.getLogger().warning("Host command execution is disabled. Command: " + command);
             return;
         }
+        CommandSender sender = execution.scope.sender;
+        Semaphore permits = hostCommandPermits;
+        long timeoutSeconds = hostCommandTimeoutSeconds;
+
+        try {
+            hostCommandExecutor.execute(() -> {
+                HostCommandResult result = runHostProcess(command, permits, timeoutSeconds);
+                scheduler.submit(() -> {
+                    if (execution.isAbandoned()) {
+                        return;
+                    }
+                    applyHostCommandResult(sender, command, result, storeVariable, suppressOutput, timeoutSeconds);
+                    execution.resumeLater();
+                });
+            });
+            execution.suspend();
+        } catch (RejectedExecutionException e) {
+            plugin.getLogger().warning("Host command rejected, executor is shut down. Command: " + command);
+        }
+    }
+
+    /**
+     * Run {@code sh -c command}, killing it after the timeout. Holds one of {@code permits} while running, if given.
+     */
+    private HostCommandResult runHostProcess(String command, Semaphore permits, long timeoutSeconds) {
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new HostCommandResult(-1, "", false, e);
+            }
+        }
+
+        Process process = null;
         try {
             ProcessBuilder pb = new ProcessBuilder("sh", "-c", command);
             pb.redirectErrorStream(true);
-            Process process = pb.start();
-            StringBuilder output = new StringBuilder();
-            try (var reader = new java.io.BufferedReader(new java.io.InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-            }
-            int exitCode = process.waitFor();
-            String result = output.toString().trim();
-            if (exitCode == 0) {
-                if (storeVariable != null && !storeVariable.isEmpty()) {
-                    if (sender instanceof Player p) {
-                        variableManager.setPlayer(p.getUniqueId(), storeVariable, result);
-                    } else {
-                        variableManager.setGlobal(storeVariable, result);
-                    }
-                    if (!suppressOutput) {
-                        sender.sendMessage(Component.text("Host output stored in variable: ", NamedTextColor.GREEN)
-                                .append(Component.text(storeVariable, NamedTextColor.YELLOW)));
-                    }
-                } else {
-                    if (!suppressOutput) {
-                        if (!result.isEmpty()) {
-                            for (String line : result.split("\n")) {
-                                sender.sendMessage(Component.text(line, NamedTextColor.GRAY));
-                            }
-                        } else {
-                            sender.sendMessage(Component.text("Host command executed successfully (no output).", NamedTextColor.GREEN));
-                        }
+            process = pb.start();
+
+            StringBuffer output = new StringBuffer();
+            Process started = process;
+            Thread reader = Thread.ofVirtual().start(() -> {
+                try (var in = new java.io.BufferedReader(new java.io.InputStreamReader(started.getInputStream()))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        output.append(line).append("\n");
                     }
+                } catch (IOException ignored) {
                 }
+            });
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+            boolean finished;
+            if (timeoutSeconds > 0) {
+                finished = process.waitFor(timeoutSeconds, TimeUnit.SECONDS);
             } else {
-                if (!suppressOutput) {
-                    sender.sendMessage(Component.text("Host command failed (exit code: " + exitCode + ")", NamedTextColor.RED));
-                    if (!result.isEmpty()) {
-                        sender.sendMessage(Component.text(result, NamedTextColor.DARK_RED));
-                    }
+                process.waitFor();
+                finished = true;
+            }
+            if (!finished) {
+                destroyProcessTree(process);
+                reader.join(OUTPUT_GRACE_MILLIS);
+                return new HostCommandResult(-1, output.toString().trim(), true, null);
+            }
+            // a background child ("job &") can keep the output open after the shell exited; wait for it only as long as
+            // the timeout allows (or a short grace period without one), then stop reading
+            long remainingMillis = timeoutSeconds > 0
+                    ? TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())
+                    : OUTPUT_GRACE_MILLIS;
+            reader.join(Math.max(1, remainingMillis));
+            if (reader.isAlive()) {
+                destroyProcessTree(process);
+                try {
+                    process.getInputStream().close();
+                } catch (IOException ignored) {
                 }
+                reader.join(OUTPUT_GRACE_MILLIS);
             }
-        } catch (Exception e) {
-            if (!suppressOutput) {
-                sender.sendMessage(Component.text("Failed to execute host command: " + e.getMessage(), NamedTextColor.RED));
+            return new HostCommandResult(process.exitValue(), output.toString().trim(), false, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            destroyProcessTree(process);
+            return new HostCommandResult(-1, "", false, e);
+        } catch (IOException e) {
+            return new HostCommandResult(-1, "", false, e);
+        } finally {
+            if (permits != null) {
+                permits.release();
             }
         }
     }
 
-    private void executeWebhook(CommandSender sender, WebhookData webhookData, String webhookUrl, String body, Map<String, String> headers, String processedVarName) {
-        if (!webhooksEnabled) {
-            plugin.getLogger().warning("Webhook execution is disabled. URL: " + webhookUrl);
+    private void destroyProcessTree(Process process) {
+        if (process == null) {
             return;
         }
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
 
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                try {
-                    HttpURLConnection connection = getHttpURLConnection();
-
-                    int responseCode = connection.getResponseCode();
-
-
-                    final String responseBody = getString(responseCode, connection);
-
-                    if (responseCode >= 200 && responseCode < 300) {
-                        plugin.getLogger().info("Webhook executed successfully. URL: " + webhookUrl);
-
-
-                        if (processedVarName != null && !processedVarName.isEmpty() && sender instanceof Player player) {
-                            variableManager.setPlayer(player.getUniqueId(), processedVarName, responseBody);
-
-                            if (webhookData.isNotSilent() && !webhookData.isDynamicStoreName()) {
-                                Bukkit.getScheduler().runTask(plugin, () -> sender.sendMessage(Component.text("Webhook response stored in variable: ", NamedTextColor.GREEN)
-                                        .append(Component.text(processedVarName, NamedTextColor.YELLOW))));
-                            }
-                        } else if (!responseBody.isEmpty() && webhookData.isNotSilent()) {
+    private void applyHostCommandResult(CommandSender sender, String command, HostCommandResult result, String storeVariable, boolean suppressOutput, long timeoutSeconds) {
+        if (result.error() != null) {
+            if (!suppressOutput) {
+                sender.sendMessage(Component.text("Failed to execute host command: " + result.error().getMessage(), NamedTextColor.RED));
+            }
+            return;
+        }
+        if (result.timedOut()) {
+            plugin.getLogger().warning("Host command timed out after " + timeoutSeconds + "s: " + command);
+            if (!suppressOutput) {
+                sender.sendMessage(Component.text("Host command timed out after " + timeoutSeconds + " seconds", NamedTextColor.RED));
+            }
+            return;
+        }
 
-                            Bukkit.getScheduler().runTask(plugin, () -> sender.sendMessage(Component.text("Webhook response: ", NamedTextColor.GREEN)
-                                    .append(Component.text(responseBody, NamedTextColor.GRAY))));
+        String output = result.output();
+        if (result.exitCode() == 0) {
+            if (storeVariable != null && !storeVariable.isEmpty()) {
+                if (sender instanceof Player p) {
+                    variableManager.setPlayer(p.getUniqueId(), storeVariable, output);
+                } else {
+                    variableManager.setGlobal(storeVariable, output);
+                }
+                if (!suppressOutput) {
+                    sender.sendMessage(Component.text("Host output stored in variable: ", NamedTextColor.GREEN)
+                            .append(Component.text(storeVariable, NamedTextColor.YELLOW)));
+                }
+            } else {
+                if (!suppressOutput) {
+                    if (!output.isEmpty()) {
+                        for (String line : output.split("\n")) {
+                            sender.sendMessage(Component.text(line, NamedTextColor.GRAY));
                         }
                     } else {
-                        plugin.getLogger().warning("Webhook returned status code " + responseCode + ". URL: " + webhookUrl);
-                        if (webhookData.isNotSilent()) {
-                            Bukkit.getScheduler().runTask(plugin, () -> sender.sendMessage(Component.text("Webhook failed (" + responseCode + "): " + responseBody, NamedTextColor.RED)));
-                        }
+                        sender.sendMessage(Component.text("Host command executed successfully (no output).", NamedTextColor.GREEN));
                     }
-                    connection.disconnect();
-                } catch (Exception e) {
-                    plugin.getLogger().severe("Failed to execute webhook: " + webhookUrl);
-                    plugin.getLogger().severe("Error: " + e.getMessage());
-                    Bukkit.getScheduler().runTask(plugin, () -> sender.sendMessage(Component.text("Webhook error: " + e.getMessage(), NamedTextColor.RED)));
                 }
             }
-
-            private static @NonNull String getString(int responseCode, HttpURLConnection connection) {
-                StringBuilder response = new StringBuilder();
-                try (var reader = new java.io.BufferedReader(
-                        new java.io.InputStreamReader(
-                                responseCode >= 200 && responseCode < 300
-                                        ? connection.getInputStream()
-                                        : connection.getErrorStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
-                    }
-                } catch (Exception ignored) {
-
+        } else {
+            if (!suppressOutput) {
+                sender.sendMessage(Component.text("Host command failed (exit code: " + result.exitCode() + ")", NamedTextColor.RED));
+                if (!output.isEmpty()) {
+                    sender.sendMessage(Component.text(output, NamedTextColor.DARK_RED));
                 }
-
-                return response.toString();
             }
+        }
+    }
 
-            private @NonNull HttpURLConnection getHttpURLConnection() throws URISyntaxException, IOException {
-                URL url = new java.net.URI(webhookUrl).toURL();
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setDoOutput(true);
-                connection.setConnectTimeout(5000);
-                connection.setReadTimeout(5000);
-
-
-                if (!headers.containsKey("Content-Type")) {
-                    connection.setRequestProperty("Content-Type", "application/json");
-                }
+    private record HostCommandResult(int exitCode, String output, boolean timedOut, Exception error) {
+    }
 
+    /**
+     * Stop accepting host commands and webhooks, kill host commands that are still running
+     * and write the remaining variable changes to disk
+     */
+    public void shutdown() {
+        int cancelled = cancelRunningBundles(execution -> true);
+        if (cancelled > 0) {
+            plugin.getLogger().info("Cancelled " + cancelled + " running command bundle(s)");
+        }
+        scheduler.stop();
+        hostCommandExecutor.shutdownNow();
+        webhookClient.shutdown();
+        if (variableStore != null) {
+            variableStore.close();
+        }
+    }
 
-                for (Map.Entry<String, String> header : headers.entrySet()) {
-                    connection.setRequestProperty(header.getKey(), header.getValue());
-                }
+    /**
+     * Main-thread time used by bundles in recent ticks
+     */
+    public BundleScheduler.Metrics getSchedulerMetrics() {
+        return scheduler.getMetrics();
+    }
 
+    /**
+     * Send a webhook and apply its result on the main thread.
+     * With {@code await}, the bundle is suspended until then, so later actions see the stored response.
+     */
+    private void executeWebhook(BundleExecution execution, WebhookData webhookData, String webhookUrl, String body, Map<String, String> headers, String processedVarName, boolean await) {
+        if (!webhooksEnabled) {
+            plugin.getLogger().warning("Webhook execution is disabled. URL: " + webhookUrl);
+            return;
+        }
 
-                if (!body.isEmpty()) {
-                    byte[] outputBytes = body.getBytes(StandardCharsets.UTF_8);
-                    connection.setFixedLengthStreamingMode(outputBytes.length);
-                    try (var os = connection.getOutputStream()) {
-                        os.write(outputBytes);
-                    }
-                }
-                return connection;
+        CommandSender sender = execution.scope.sender;
+        CompletableFuture<WebhookClient.Response> request = webhookClient.post(webhookUrl, body, headers, webhookData.getResponsePaths());
+        if (await) {
+            execution.suspend();
+        }
+        request.whenComplete((response, error) -> scheduler.submit(() -> {
+            if (execution.isAbandoned()) {
+                return;
+            }
+            applyWebhookResult(sender, webhookData, webhookUrl, processedVarName, response, error);
+            if (await) {
+                execution.resumeLater();
             }
-        }.runTaskAsynchronously(plugin);
+        }));
     }
 
-    private String replacePlaceholders(CommandSender sender, String text, String[] args) {
+    private void applyWebhookResult(CommandSender sender, WebhookData webhookData, String webhookUrl, String processedVarName, WebhookClient.Response response, Throwable error) {
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            plugin.getLogger().severe("Failed to execute webhook: " + webhookUrl);
+            plugin.getLogger().severe("Error: " + cause.getMessage());
+            sender.sendMessage(Component.text("Webhook error: " + cause.getMessage(), NamedTextColor.RED));
+            return;
+        }
 
-        text = processEscapeSequences(text);
+        String responseBody = response.body();
+        if (response.isSuccess()) {
+            plugin.getLogger().info("Webhook executed successfully. URL: " + webhookUrl);
 
 
-        text = replaceArguments(text, args);
+            if (response.fields() != null) {
+                applyWebhookFields(sender, webhookData, processedVarName, response.fields());
+            } else if (processedVarName != null && !processedVarName.isEmpty() && sender instanceof Player player) {
+                variableManager.setPlayer(player.getUniqueId(), processedVarName, responseBody);
 
-        if (sender instanceof Player player) {
-            text = text.replace("%player%", player.getName());
-            text = text.replace("%uuid%", player.getUniqueId().toString());
-            text = text.replace("%player_uuid%", player.getUniqueId().toString());
-            text = text.replace("%world%", player.getWorld().getName());
-            text = text.replace("%x%", String.valueOf(player.getLocation().getBlockX()));
-            text = text.replace("%y%", String.valueOf(player.getLocation().getBlockY()));
-            text = text.replace("%z%", String.valueOf(player.getLocation().getBlockZ()));
-            text = text.replace("%health%", String.valueOf(player.getHealth()));
-            text = text.replace("%level%", String.valueOf(player.getLevel()));
-            text = text.replace("%gamemode%", player.getGameMode().name());
+                if (webhookData.isNotSilent() && !webhookData.isDynamicStoreName()) {
+                    sender.sendMessage(Component.text("Webhook response stored in variable: ", NamedTextColor.GREEN)
+                            .append(Component.text(processedVarName, NamedTextColor.YELLOW)));
+                }
+            } else if (!responseBody.isEmpty() && webhookData.isNotSilent()) {
 
-            text = replaceVariables(text, player.getUniqueId());
+                sender.sendMessage(Component.text("Webhook response: ", NamedTextColor.GREEN)
+                        .append(Component.text(responseBody, NamedTextColor.GRAY)));
+            }
         } else {
-
-            text = replaceVariablesForConsole(text);
+            plugin.getLogger().warning("Webhook returned status code " + response.statusCode() + ". URL: " + webhookUrl);
+            if (webhookData.isNotSilent()) {
+                sender.sendMessage(Component.text("Webhook failed (" + response.statusCode() + "): " + responseBody, NamedTextColor.RED));
+            }
         }
-
-
-        text = replaceServerConstants(text);
-
-
-        text = replaceFileRead(text);
-
-
-        text = handleFileWrite(text);
-
-
-        text = replaceCommandSubstitution(text);
-
-
-        text = replaceMathExpressions(text);
-        text = restoreEscapedCharacters(text);
-
-        return text;
     }
 
     /**
-     * Replace variables when command is executed from console/server
-     * Uses global variables only
+     * Store the selected JSON paths of a response as {@code <var>_<name>}; paths that were not found are removed
      */
-    private String replaceVariablesForConsole(String text) {
-        while (text.contains("%var:")) {
-            int start = text.indexOf("%var:");
-            int end = text.indexOf("%", start + 1);
-            if (end == -1) break;
-
-            String varSpec = text.substring(start + 5, end);
-            String value = "";
-
-
-            if (varSpec.contains(".")) {
-                String[] parts = varSpec.split("\\.", 2);
-                String varName = parts[0];
-                String jsonPath = parts[1];
-
-                String jsonData = variableManager.getGlobal(varName);
-                if (!jsonData.isEmpty()) {
-                    value = extractJsonValue(jsonData, jsonPath);
-                }
-            } else {
-
-                value = variableManager.getGlobal(varSpec);
+    private void applyWebhookFields(CommandSender sender, WebhookData webhookData, String processedVarName, Map<String, String> fields) {
+        List<String> names = new ArrayList<>();
+        for (WebhookData.ResponseField field : webhookData.getResponseFields()) {
+            String name = processedVarName + "_" + field.name();
+            String value = fields.get(field.path());
+            names.add(name);
+            if (sender instanceof Player player) {
+                variableManager.setPlayer(player.getUniqueId(), name, value);
+            } else if (webhookData.isNotSilent()) {
+                sender.sendMessage(Component.text(name + ": ", NamedTextColor.GREEN)
+                        .append(Component.text(value == null ? "" : value, NamedTextColor.GRAY)));
             }
-
-            text = text.replace("%var:" + varSpec + "%", value);
         }
 
-        return text;
+        if (sender instanceof Player && webhookData.isNotSilent() && !webhookData.isDynamicStoreName()) {
+            sender.sendMessage(Component.text("Webhook response stored in variables: ", NamedTextColor.GREEN)
+                    .append(Component.text(String.join(", ", names), NamedTextColor.YELLOW)));
+        }
     }
 
-    private String replaceServerConstants(String text) {
+    private String replacePlaceholders(PlaceholderScope scope, PlaceholderTemplate template) {
+        return template.render(scope, scope.args);
+    }
 
-        if (text.contains("%players%")) {
-            StringBuilder playerList = new StringBuilder();
-            for (Player p : Bukkit.getOnlinePlayers()) {
-                if (!playerList.isEmpty()) playerList.append(",");
-                playerList.append(p.getName());
+    /**
+     * Runtime values for {@link PlaceholderTemplate} rendering.
+     * One scope lives for a whole bundle invocation so player lookups are shared between its actions.
+     */
+    private final class PlaceholderScope implements PlaceholderTemplate.Resolver {
+        private final CommandSender sender;
+        private final String[] args;
+        private final PlayerContext player;
+        private final BundleSettings settings;
+
+        private PlaceholderScope(CommandSender sender, String[] args, BundleSettings settings) {
+            this.sender = sender;
+            this.args = args;
+            this.settings = settings;
+            this.player = sender instanceof Player p ? new PlayerContext(p) : null;
+        }
+
+        private void invalidate() {
+            if (player != null) {
+                player.invalidate();
             }
-            text = text.replace("%players%", playerList.toString());
         }
 
-
-        if (text.contains("%players_uuid%")) {
-            StringBuilder uuidList = new StringBuilder();
-            for (Player p : Bukkit.getOnlinePlayers()) {
-                if (!uuidList.isEmpty()) uuidList.append(",");
-                uuidList.append(p.getUniqueId());
-            }
-            text = text.replace("%players_uuid%", uuidList.toString());
+        @Override
+        public boolean isPlayer() {
+            return player != null;
         }
 
-
-        if (text.contains("%playercount%")) {
-            text = text.replace("%playercount%", String.valueOf(Bukkit.getOnlinePlayers().size()));
+        @Override
+        public boolean isSubstitutionEnabled() {
+            return hostCommandsEnabled;
         }
 
+        @Override
+        public String playerField(PlaceholderTemplate.PlayerField field) {
+            return player.get(field);
+        }
 
-        if (text.contains("%teams%")) {
-            StringBuilder teamList = new StringBuilder();
-            org.bukkit.scoreboard.Scoreboard scoreboard = Bukkit.getScoreboardManager().getMainScoreboard();
-            for (org.bukkit.scoreboard.Team team : scoreboard.getTeams()) {
-                if (!teamList.isEmpty()) teamList.append(",");
-                teamList.append(team.getName());
+        @Override
+        public String variable(String spec) {
+            if (player != null) {
+                return resolvePlayerVariable(player.getUniqueId(), spec);
             }
-            text = text.replace("%teams%", teamList.toString());
+            return resolveGlobalVariable(spec);
         }
 
-
-        while (text.contains("%teamplayers:")) {
-            int start = text.indexOf("%teamplayers:");
-            int end = text.indexOf("%", start + 1);
-            if (end == -1) break;
-
-            String teamName = text.substring(start + 13, end);
-            String teamPlayers = getTeamPlayers(teamName, false);
-            text = text.substring(0, start) + teamPlayers + text.substring(end + 1);
+        @Override
+        public String fallbackVariable(String name) {
+            return resolveFallbackVariable(player.getUniqueId(), name);
         }
 
+        @Override
+        public String serverConstant(PlaceholderTemplate.ServerConstant constant) {
+            return getServerConstant(constant);
+        }
 
-        while (text.contains("%teamplayers_uuid:")) {
-            int start = text.indexOf("%teamplayers_uuid:");
-            int end = text.indexOf("%", start + 1);
-            if (end == -1) break;
-
-            String teamName = text.substring(start + 18, end);
-            String teamPlayers = getTeamPlayers(teamName, true);
-            text = text.substring(0, start) + teamPlayers + text.substring(end + 1);
+        @Override
+        public String teamPlayers(String teamName, boolean uuids) {
+            return getTeamPlayers(teamName, uuids);
         }
 
+        @Override
+        public String readFile(String fileSpec) {
+            return readFileOrYaml(fileSpec);
+        }
 
-        text = resolveNestedTeamPlayers(text, false);
-        text = resolveNestedTeamPlayers(text, true);
+        @Override
+        public void writeFile(String fileSpec) {
+            writeFileOrYaml(fileSpec);
+        }
 
-        return text;
+        @Override
+        public String substitute(String command) {
+            return executeCommandSubstitution(command, null, settings);
+        }
     }
 
-    private String resolveNestedTeamPlayers(String text, boolean uuid) {
-        String prefix = uuid ? "%teamplayers_uuid:" : "%teamplayers:";
-        while (true) {
-            int idx = text.indexOf(prefix + "%");
-            if (idx == -1) break;
-
-            int innerStart = idx + prefix.length();
-            if (innerStart >= text.length() || text.charAt(innerStart) != '%') break;
-            int innerEnd = text.indexOf("%", innerStart + 1);
-            if (innerEnd == -1) break;
-
-
-            String resolvedInner;
+    private String resolveGlobalVariable(String varSpec) {
+        int dot = varSpec.indexOf('.');
+        if (dot != -1) {
+            JsonDocument json = variableManager.getGlobalJson(varSpec.substring(0, dot));
+            return json == null ? "" : json.get(varSpec, dot + 1);
+        }
 
-            resolvedInner = text.substring(innerStart, innerEnd + 1);
+        return variableManager.getGlobal(varSpec);
+    }
 
-            if (resolvedInner.startsWith("%") && resolvedInner.endsWith("%")) {
-                resolvedInner = resolvedInner.substring(1, resolvedInner.length() - 1);
+    private String getServerConstant(PlaceholderTemplate.ServerConstant constant) {
+        switch (constant) {
+            case PLAYERS -> {
+                StringBuilder playerList = new StringBuilder();
+                for (Player p : Bukkit.getOnlinePlayers()) {
+                    if (!playerList.isEmpty()) playerList.append(",");
+                    playerList.append(p.getName());
+                }
+                return playerList.toString();
+            }
+            case PLAYERS_UUID -> {
+                StringBuilder uuidList = new StringBuilder();
+                for (Player p : Bukkit.getOnlinePlayers()) {
+                    if (!uuidList.isEmpty()) uuidList.append(",");
+                    uuidList.append(p.getUniqueId());
+                }
+                return uuidList.toString();
+            }
+            case PLAYER_COUNT -> {
+                return String.valueOf(Bukkit.getOnlinePlayers().size());
+            }
+            default -> {
+                StringBuilder teamList = new StringBuilder();
+                org.bukkit.scoreboard.Scoreboard scoreboard = Bukkit.getScoreboardManager().getMainScoreboard();
+                for (org.bukkit.scoreboard.Team team : scoreboard.getTeams()) {
+                    if (!teamList.isEmpty()) teamList.append(",");
+                    teamList.append(team.getName());
+                }
+                return teamList.toString();
             }
-            String playersList = getTeamPlayers(resolvedInner, uuid);
-
-            int patternEnd = innerEnd + 1;
-
-            int replaceEnd = patternEnd + 1 <= text.length() ? patternEnd + 1 : patternEnd;
-            text = text.substring(0, idx) + playersList + text.substring(replaceEnd);
         }
-        return text;
     }
 
     private String getTeamPlayers(String teamName, boolean returnUuids) {
@@ -1265,305 +1954,48 @@ public class CustomCommandManager {
         }
     }
 
-    private String replaceArguments(String text, String[] args) {
-
-        if (args.length > 0) {
-            text = text.replace("%args%", String.join(" ", args));
-        } else {
-            text = text.replace("%args%", "");
-        }
-
-
-        for (int i = 1; i <= Math.max(args.length + 5, 10); i++) {
-
-            String patternWithDefault = "%arg" + i + "-::";
-            int defaultStart = text.indexOf(patternWithDefault);
-            if (defaultStart != -1) {
-                int defaultEnd = text.indexOf("%", defaultStart + patternWithDefault.length());
-                if (defaultEnd != -1) {
-                    String fullPlaceholder = text.substring(defaultStart, defaultEnd + 1);
-                    String defaultValue = text.substring(defaultStart + patternWithDefault.length(), defaultEnd);
-
-                    if (i <= args.length) {
-                        String[] remaining = Arrays.copyOfRange(args, i - 1, args.length);
-                        text = text.replace(fullPlaceholder, String.join(" ", remaining));
-                    } else {
-                        text = text.replace(fullPlaceholder, defaultValue);
-                    }
-                }
-            }
-
-
-            String pattern = "%arg" + i + "-%";
-            if (text.contains(pattern)) {
-                if (i <= args.length) {
-                    String[] remaining = Arrays.copyOfRange(args, i - 1, args.length);
-                    text = text.replace(pattern, String.join(" ", remaining));
-                } else {
-                    text = text.replace(pattern, "");
-                }
+    private String resolvePlayerVariable(UUID playerId, String varSpec) {
+        int dot = varSpec.indexOf('.');
+        if (dot != -1) {
+            String varName = varSpec.substring(0, dot);
+            JsonDocument json = variableManager.getPlayerJson(playerId, varName);
+            if (json == null) {
+                json = variableManager.getGlobalJson(varName);
             }
+            return json == null ? "" : json.get(varSpec, dot + 1);
         }
 
-
-        for (int i = 0; i < args.length; i++) {
-            text = text.replace("%arg" + (i + 1) + "%", args[i]);
+        String value = variableManager.getPlayer(playerId, varSpec);
+        if (value.isEmpty()) {
+            value = variableManager.getGlobal(varSpec);
         }
-
-
-        while (text.contains("%arg")) {
-            int start = text.indexOf("%arg");
-            int end = text.indexOf("%", start + 1);
-            if (end == -1) break;
-
-            String placeholder = text.substring(start, end + 1);
-            String[] parts = placeholder.substring(1, placeholder.length() - 1).split("::");
-
-            if (parts.length >= 2) {
-                String argPart = parts[0];
-                String defaultValue = parts[1];
-
-                try {
-                    int argIndex = Integer.parseInt(argPart.substring(3)) - 1;
-                    String value = (argIndex >= 0 && argIndex < args.length) ? args[argIndex] : defaultValue;
-                    text = text.replace(placeholder, value);
-                } catch (NumberFormatException e) {
-                    text = text.replace(placeholder, defaultValue);
-                }
-            } else {
-                break;
-            }
-        }
-
-
-        int idx = 0;
-        while ((idx = text.indexOf("%arg", idx)) != -1) {
-            int end = text.indexOf("%", idx + 1);
-            if (end == -1) break;
-            String token = text.substring(idx + 1, end);
-            if (token.startsWith("arg")) {
-                String numPart = token.substring(3);
-                try {
-                    int argIndex = Integer.parseInt(numPart) - 1;
-                    String value = (argIndex >= 0 && argIndex < args.length) ? args[argIndex] : "";
-                    text = text.substring(0, idx) + value + text.substring(end + 1);
-                    idx += value.length();
-                    continue;
-                } catch (NumberFormatException ignored) {
-                }
-            }
-            idx = end + 1;
-        }
-
-        return text;
-    }
-
-    private String replaceVariables(String text, UUID playerId) {
-
-        while (text.contains("%var:")) {
-            int start = text.indexOf("%var:");
-            int end = text.indexOf("%", start + 1);
-            if (end == -1) break;
-
-            String varSpec = text.substring(start + 5, end);
-            String value = "";
-
-
-            if (varSpec.contains(".")) {
-                String[] parts = varSpec.split("\\.", 2);
-                String varName = parts[0];
-                String jsonPath = parts[1];
-
-                String jsonData = variableManager.getPlayer(playerId, varName);
-                if (jsonData.isEmpty()) {
-                    jsonData = variableManager.getGlobal(varName);
-                }
-
-                if (!jsonData.isEmpty()) {
-                    value = extractJsonValue(jsonData, jsonPath);
-                }
-            } else {
-
-                value = variableManager.getPlayer(playerId, varSpec);
-                if (value.isEmpty()) {
-                    value = variableManager.getGlobal(varSpec);
-                }
-            }
-
-            text = text.replace("%var:" + varSpec + "%", value);
-        }
-
-        text = applyVariableFallback(text, playerId);
-
-        return text;
-    }
-
-    private String applyVariableFallback(String text, UUID playerId) {
-
-        Set<String> reservedPrefixes = Set.of("player", "uuid", "players", "players_uuid", "playercount", "teams", "teamplayers", "teamplayers_uuid", "arg", "var", "count");
-        int idx = 0;
-        while ((idx = text.indexOf('%', idx)) != -1) {
-            int end = text.indexOf('%', idx + 1);
-            if (end == -1) break;
-            String token = text.substring(idx + 1, end);
-            if (token.contains(":") || token.contains("(") || token.contains("-::") || token.endsWith("-%")) {
-                idx = end + 1;
-                continue;
-            }
-            String lower = token.toLowerCase();
-            boolean reserved = reservedPrefixes.stream().anyMatch(lower::startsWith);
-            if (!reserved) {
-                String value = variableManager.getPlayer(playerId, token);
-                if (value.isEmpty()) value = variableManager.getGlobal(token);
-                if (!value.isEmpty()) {
-                    text = text.substring(0, idx) + value + text.substring(end + 1);
-                    idx += value.length();
-                    continue;
-                }
-            }
-            idx = end + 1;
-        }
-        return text;
+        return value;
     }
 
-
-    private String extractJsonValue(String json, String path) {
-        try {
-            String[] pathParts = path.split("\\.");
-            String current = json.trim();
-
-            for (String key : pathParts) {
-
-                String searchKey = "\"" + key + "\"";
-                int keyIndex = current.indexOf(searchKey);
-                if (keyIndex == -1) {
-                    return "";
-                }
-
-
-                int colonIndex = current.indexOf(":", keyIndex);
-                if (colonIndex == -1) {
-                    return "";
-                }
-
-
-                int valueStart = colonIndex + 1;
-                while (valueStart < current.length() && Character.isWhitespace(current.charAt(valueStart))) {
-                    valueStart++;
-                }
-
-                char firstChar = current.charAt(valueStart);
-
-
-                if (firstChar == '"') {
-
-                    int stringEnd = current.indexOf('"', valueStart + 1);
-                    if (stringEnd == -1) {
-                        return "";
-                    }
-                    current = current.substring(valueStart + 1, stringEnd);
-                } else if (firstChar == '{') {
-
-                    int braceCount = 1;
-                    int objEnd = valueStart + 1;
-                    while (objEnd < current.length() && braceCount > 0) {
-                        if (current.charAt(objEnd) == '{') braceCount++;
-                        else if (current.charAt(objEnd) == '}') braceCount--;
-                        objEnd++;
-                    }
-                    current = current.substring(valueStart, objEnd);
-                } else if (firstChar == '[') {
-
-                    int bracketCount = 1;
-                    int arrEnd = valueStart + 1;
-                    while (arrEnd < current.length() && bracketCount > 0) {
-                        if (current.charAt(arrEnd) == '[') bracketCount++;
-                        else if (current.charAt(arrEnd) == ']') bracketCount--;
-                        arrEnd++;
-                    }
-                    current = current.substring(valueStart, arrEnd);
-                } else {
-
-                    int valueEnd = valueStart;
-                    while (valueEnd < current.length()) {
-                        char c = current.charAt(valueEnd);
-                        if (c == ',' || c == '}' || c == ']') {
-                            break;
-                        }
-                        valueEnd++;
-                    }
-                    current = current.substring(valueStart, valueEnd).trim();
-                }
-            }
-
-            return current;
-        } catch (Exception e) {
-            plugin.getLogger().warning("Failed to extract JSON path '" + path + "': " + e.getMessage());
-            return "";
-        }
+    private String resolveFallbackVariable(UUID playerId, String name) {
+        String value = variableManager.getPlayer(playerId, name);
+        if (value.isEmpty()) value = variableManager.getGlobal(name);
+        return value;
     }
 
     /**
-     * Replace command substitution &(...) with command output
-     * Example: &(echo hello) -> hello
-     * Note: Changed from $() to &() to avoid conflicts with $ host commands
+     * Run one {@code &()} command and return its output lines joined by spaces.
+     * A failed or timed out command yields the bundle's substitution fallback.
      */
-    private String replaceCommandSubstitution(String text) {
-        if (!hostCommandsEnabled) {
-            return text;
+    private String executeCommandSubstitution(String command, Semaphore permits, BundleSettings settings) {
+        HostCommandResult result = runHostProcess(command, permits, settings.getSubstitutionTimeout());
+        if (result.error() != null) {
+            plugin.getLogger().warning("Command substitution failed: " + command + " - " + result.error().getMessage());
+            return settings.getSubstitutionFallback();
         }
-
-        while (text.contains("&(")) {
-            int start = text.indexOf("&(");
-            int end = findMatchingParenthesis(text, start + 2);
-            if (end == -1) break;
-
-            String command = text.substring(start + 2, end);
-            String result = executeCommandSubstitution(command);
-            text = text.substring(0, start) + result + text.substring(end + 1);
+        if (result.timedOut()) {
+            plugin.getLogger().warning("Command substitution timed out after " + settings.getSubstitutionTimeout() + "s: " + command);
+            return settings.getSubstitutionFallback();
         }
-
-        return text;
+        return result.output().replace('\n', ' ');
     }
 
 
-    private String executeCommandSubstitution(String command) {
-        try {
-            ProcessBuilder pb = new ProcessBuilder("sh", "-c", command);
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
-
-            StringBuilder output = new StringBuilder();
-            try (var reader = new java.io.BufferedReader(new java.io.InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (!output.isEmpty()) output.append(" ");
-                    output.append(line);
-                }
-            }
-
-            process.waitFor();
-            return output.toString().trim();
-        } catch (Exception e) {
-            plugin.getLogger().warning("Command substitution failed: " + command + " - " + e.getMessage());
-            return "";
-        }
-    }
-
-
-    private String replaceFileRead(String text) {
-        while (text.contains(",,")) {
-            int start = text.indexOf(",,");
-            int end = findNextWhitespaceOrEnd(text, start + 2);
-
-            String fileSpec = text.substring(start + 2, end);
-            String result = readFileOrYaml(fileSpec);
-            text = text.substring(0, start) + result + text.substring(end);
-        }
-
-        return text;
-    }
-
     private String readFileOrYaml(String fileSpec) {
         String[] parts = fileSpec.split("::", 2);
         String filePath = parts[0];
@@ -1597,21 +2029,6 @@ public class CustomCommandManager {
     }
 
 
-    private String handleFileWrite(String text) {
-        while (text.contains(";;")) {
-            int start = text.indexOf(";;");
-            int end = findNextWhitespaceOrEnd(text, start + 2);
-
-            String fileSpec = text.substring(start + 2, end);
-            writeFileOrYaml(fileSpec);
-
-
-            text = text.substring(0, start) + text.substring(end);
-        }
-
-        return text;
-    }
-
     private void writeFileOrYaml(String fileSpec) {
         String[] parts = fileSpec.split("::", 3);
         if (parts.length < 2) {
@@ -1682,37 +2099,13 @@ public class CustomCommandManager {
     }
 
 
-    private int findMatchingParenthesis(String text, int start) {
-        int depth = 1;
-        for (int i = start; i < text.length(); i++) {
-            char c = text.charAt(i);
-            if (c == '(') depth++;
-            else if (c == ')') {
-                depth--;
-                if (depth == 0) return i;
-            }
-        }
-        return -1;
-    }
-
-    private int findNextWhitespaceOrEnd(String text, int start) {
-        for (int i = start; i < text.length(); i++) {
-            char c = text.charAt(i);
-
-            if (Character.isWhitespace(c) || c == '"' || c == '\'' || c == ',' || c == ']' || c == '}' || c == ')') {
-                return i;
-            }
-        }
-        return text.length();
-    }
-
-    private CommandAction selectRandomAction(List<CommandAction> actions) {
+    private CommandAction selectRandomAction(CompiledBundle bundle) {
+        List<CommandAction> actions = bundle.getRandomActions();
         if (actions.isEmpty()) {
             return null;
         }
 
-        int totalWeight = actions.stream().mapToInt(CommandAction::getRandomWeight).sum();
-        int random = new Random().nextInt(totalWeight);
+        int random = new Random().nextInt(bundle.getTotalRandomWeight());
         int currentWeight = 0;
 
         for (CommandAction action : actions) {
@@ -1726,56 +2119,6 @@ public class CustomCommandManager {
     }
 
 
-    private String processEscapeSequences(String text) {
-
-        text = text.replace("\\ ", "\u0000SHELL_CONTINUATION_SPACE\u0000");
-        text = text.replace("\\\n", "\u0000SHELL_CONTINUATION_NEWLINE\u0000");
-
-
-        text = text.replace("\\\\", "\u0000ESCAPED_BACKSLASH\u0000");
-
-
-        text = text.replace("\\|", "\u0000ESCAPED_PIPE\u0000");
-        text = text.replace("\\%", "\u0000ESCAPED_PERCENT\u0000");
-        text = text.replace("\\:", "\u0000ESCAPED_COLON\u0000");
-        text = text.replace("\\[", "\u0000ESCAPED_LBRACKET\u0000");
-        text = text.replace("\\]", "\u0000ESCAPED_RBRACKET\u0000");
-
-        return text;
-    }
-
-    private String restoreEscapedCharacters(String text) {
-        text = text.replace("\u0000ESCAPED_PIPE\u0000", "|");
-        text = text.replace("\u0000ESCAPED_PERCENT\u0000", "%");
-        text = text.replace("\u0000ESCAPED_COLON\u0000", ":");
-        text = text.replace("\u0000ESCAPED_LBRACKET\u0000", "[");
-        text = text.replace("\u0000ESCAPED_RBRACKET\u0000", "]");
-        text = text.replace("\u0000ESCAPED_BACKSLASH\u0000", "\\");
-
-
-        text = text.replace("\u0000SHELL_CONTINUATION_SPACE\u0000", "\\ ");
-        text = text.replace("\u0000SHELL_CONTINUATION_NEWLINE\u0000", "\\\n");
-
-        return text;
-    }
-
-
-    private String replaceMathExpressions(String text) {
-        while (text.contains("{math:")) {
-            int start = text.indexOf("{math:");
-            int end = text.indexOf("}", start);
-            if (end == -1) break;
-
-            String expression = text.substring(start + 6, end);
-            String result = MathEvaluator.evaluate(expression);
-
-            text = text.substring(0, start) + result + text.substring(end + 1);
-        }
-
-        return text;
-    }
-
-
     private void sendColoredMessage(CommandSender sender, String colorSpec, String text) {
         try {
             Component component = Component.text(text);
@@ -0,0 +1,144 @@
+package de.thecoolcraft11.commandBundle;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityPickupItemEvent;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.player.PlayerDropItemEvent;
+import org.bukkit.event.player.PlayerItemBreakEvent;
+import org.bukkit.event.player.PlayerItemConsumeEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Item counts of player inventories per material, so repeated {@code item:} conditions do not scan the inventory.
+ * <p>
+ * A player's counts are taken in one pass over the inventory and stay valid until the inventory changes through
+ * an event, a bundle runs a command ({@link #clear()}), or the server tick ends, whichever comes first; the tick limit
+ * covers changes that fire no event, such as other plugins editing inventories. Main thread only.
+ */
+public final class ItemCountCache implements Listener {
+    private static final int MATERIALS = Material.values().length;
+
+    private final Map<UUID, Counts> players = new HashMap<>();
+
+    /**
+     * @return total amount of {@code material} in the player's inventory, armor and off hand included
+     */
+    public int count(Player player, Material material) {
+        int tick = Bukkit.getCurrentTick();
+        Counts counts = players.computeIfAbsent(player.getUniqueId(), id -> new Counts());
+        if (!counts.valid || counts.tick != tick) {
+            counts.fill(player.getInventory().getContents());
+            counts.tick = tick;
+        }
+        return counts.amounts[material.ordinal()];
+    }
+
+    public void invalidate(UUID playerId) {
+        Counts counts = players.get(playerId);
+        if (counts != null) {
+            counts.valid = false;
+        }
+    }
+
+    /**
+     * Invalidate the counts of all players, e.g. after a command that may have given or taken items
+     */
+    public void clear() {
+        for (Counts counts : players.values()) {
+            counts.valid = false;
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClick(InventoryClickEvent event) {
+        invalidate(event.getWhoClicked().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryDrag(InventoryDragEvent event) {
+        invalidate(event.getWhoClicked().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPickup(EntityPickupItemEvent event) {
+        if (event.getEntity() instanceof Player player) {
+            invalidate(player.getUniqueId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onDrop(PlayerDropItemEvent event) {
+        invalidate(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onConsume(PlayerItemConsumeEvent event) {
+        invalidate(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onItemBreak(PlayerItemBreakEvent event) {
+        invalidate(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        invalidate(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onDeath(PlayerDeathEvent event) {
+        invalidate(event.getEntity().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        players.remove(event.getPlayer().getUniqueId());
+    }
+
+    private static final class Counts {
+        private final int[] amounts = new int[MATERIALS];
+        /**
+         * Ordinals with a non-zero amount, so refilling only has to reset those
+         */
+        private int[] present = new int[16];
+        private int presentCount;
+        private int tick;
+        private boolean valid;
+
+        private void fill(ItemStack[] contents) {
+            for (int i = 0; i < presentCount; i++) {
+                amounts[present[i]] = 0;
+            }
+            presentCount = 0;
+            for (ItemStack item : contents) {
+                if (item == null) {
+                    continue;
+                }
+                int ordinal = item.getType().ordinal();
+                if (amounts[ordinal] == 0) {
+                    if (presentCount == present.length) {
+                        present = Arrays.copyOf(present, presentCount * 2);
+                    }
+                    present[presentCount++] = ordinal;
+                }
+                amounts[ordinal] += item.getAmount();
+            }
+            valid = true;
+        }
+    }
+}
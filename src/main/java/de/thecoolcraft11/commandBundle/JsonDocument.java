@@ -0,0 +1,283 @@
+package de.thecoolcraft11.commandBundle;
+
+import java.util.Arrays;
+
+/**
+ * Read-only index over a JSON text for path lookups like {@code profile.stats.kills} or {@code items.3.name}.
+ * <p>
+ * The text is parsed once into a flat tape of nodes in document order. Every node knows where its subtree ends,
+ * so a lookup skips over siblings without looking at the text again, and the value of a node is cut out of the
+ * text only once. Repeated lookups of the same path therefore allocate nothing.
+ * Text that is not valid JSON has no nodes; every lookup on it returns "".
+ */
+public final class JsonDocument {
+    private static final byte OBJECT = 0;
+    private static final byte ARRAY = 1;
+    private static final byte STRING = 2;
+    private static final byte KEY = 3;
+    private static final byte LITERAL = 4;
+    private static final int MAX_DEPTH = 512;
+
+    private final String text;
+    private byte[] kinds = new byte[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    /**
+     * Index of the first node after the subtree of each node
+     */
+    private int[] skips = new int[16];
+    private boolean[] escaped = new boolean[16];
+    private int size;
+    private final String[] values;
+
+    private int pos;
+
+    private JsonDocument(String text) {
+        this.text = text;
+        try {
+            parseValue(0);
+        } catch (IllegalArgumentException e) {
+            size = 0;
+        }
+        kinds = Arrays.copyOf(kinds, size);
+        starts = Arrays.copyOf(starts, size);
+        ends = Arrays.copyOf(ends, size);
+        skips = Arrays.copyOf(skips, size);
+        escaped = Arrays.copyOf(escaped, size);
+        values = new String[size];
+    }
+
+    public static JsonDocument parse(String text) {
+        return new JsonDocument(text);
+    }
+
+    public boolean isValid() {
+        return size > 0;
+    }
+
+    /**
+     * Value at a dot-separated path: strings without quotes and with escapes resolved, objects and arrays
+     * as JSON text, numbers, booleans and null as written. Array elements are addressed by index.
+     * A key that is not a direct child is looked up in the whole subtree, as earlier versions did.
+     *
+     * @param from index in {@code path} where the path starts, so callers need not cut off a prefix
+     * @return the value, or "" if the path does not exist
+     */
+    public String get(String path, int from) {
+        if (size == 0) {
+            return "";
+        }
+        int node = 0;
+        int segmentStart = from;
+        while (segmentStart <= path.length()) {
+            int segmentEnd = path.indexOf('.', segmentStart);
+            if (segmentEnd == -1) {
+                segmentEnd = path.length();
+            }
+            node = child(node, path, segmentStart, segmentEnd);
+            if (node < 0) {
+                return "";
+            }
+            segmentStart = segmentEnd + 1;
+        }
+        return value(node);
+    }
+
+    public String get(String path) {
+        return get(path, 0);
+    }
+
+    private int child(int node, String path, int start, int end) {
+        if (kinds[node] == OBJECT) {
+            for (int key = node + 1; key < skips[node]; key = skips[key + 1]) {
+                if (keyEquals(key, path, start, end)) {
+                    return key + 1;
+                }
+            }
+        } else if (kinds[node] == ARRAY) {
+            int index = parseIndex(path, start, end);
+            if (index >= 0) {
+                int element = node + 1;
+                while (index-- > 0 && element < skips[node]) {
+                    element = skips[element];
+                }
+                return element < skips[node] ? element : -1;
+            }
+        } else {
+            return -1;
+        }
+
+        for (int key = node + 1; key < skips[node]; key++) {
+            if (kinds[key] == KEY && keyEquals(key, path, start, end)) {
+                return key + 1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(int key, String path, int start, int end) {
+        int length = end - start;
+        if (escaped[key]) {
+            String name = value(key);
+            return name.length() == length && name.regionMatches(0, path, start, length);
+        }
+        return ends[key] - starts[key] == length && text.regionMatches(starts[key], path, start, length);
+    }
+
+    private static int parseIndex(String path, int start, int end) {
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    private String value(int node) {
+        String value = values[node];
+        if (value == null) {
+            value = escaped[node] ? unescape(starts[node], ends[node]) : text.substring(starts[node], ends[node]);
+            values[node] = value;
+        }
+        return value;
+    }
+
+    private String unescape(int start, int end) {
+        StringBuilder builder = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 >= end) {
+                builder.append(c);
+                continue;
+            }
+            char next = text.charAt(++i);
+            switch (next) {
+                case 'n' -> builder.append('\n');
+                case 't' -> builder.append('\t');
+                case 'r' -> builder.append('\r');
+                case 'b' -> builder.append('\b');
+                case 'f' -> builder.append('\f');
+                case 'u' -> {
+                    if (i + 4 < end) {
+                        try {
+                            builder.append((char) Integer.parseInt(text, i + 1, i + 5, 16));
+                            i += 4;
+                            break;
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+                    builder.append("\\u");
+                }
+                default -> builder.append(next);
+            }
+        }
+        return builder.toString();
+    }
+
+    private void parseValue(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("too deeply nested");
+        }
+        skipWhitespace();
+        if (pos >= text.length()) {
+            throw new IllegalArgumentException("unexpected end");
+        }
+        char c = text.charAt(pos);
+        if (c == '{' || c == '[') {
+            boolean object = c == '{';
+            char close = object ? '}' : ']';
+            int node = add(object ? OBJECT : ARRAY, pos);
+            pos++;
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == close) {
+                pos++;
+            } else {
+                while (true) {
+                    if (object) {
+                        skipWhitespace();
+                        if (pos >= text.length() || text.charAt(pos) != '"') {
+                            throw new IllegalArgumentException("expected key");
+                        }
+                        parseString(KEY);
+                        skipWhitespace();
+                        if (pos >= text.length() || text.charAt(pos) != ':') {
+                            throw new IllegalArgumentException("expected ':'");
+                        }
+                        pos++;
+                    }
+                    parseValue(depth + 1);
+                    skipWhitespace();
+                    if (pos >= text.length()) {
+                        throw new IllegalArgumentException("unexpected end");
+                    }
+                    char separator = text.charAt(pos++);
+                    if (separator == close) {
+                        break;
+                    }
+                    if (separator != ',') {
+                        throw new IllegalArgumentException("expected ',' or '" + close + "'");
+                    }
+                }
+            }
+            ends[node] = pos;
+            skips[node] = size;
+        } else if (c == '"') {
+            parseString(STRING);
+        } else {
+            int start = pos;
+            while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) == -1) {
+                pos++;
+            }
+            int node = add(LITERAL, start);
+            ends[node] = pos;
+            skips[node] = size;
+        }
+    }
+
+    /**
+     * String node covering the text between the quotes
+     */
+    private void parseString(byte kind) {
+        int node = add(kind, ++pos);
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '"') {
+                ends[node] = pos++;
+                skips[node] = size;
+                return;
+            }
+            if (c == '\\') {
+                escaped[node] = true;
+                pos++;
+            }
+            pos++;
+        }
+        throw new IllegalArgumentException("unterminated string");
+    }
+
+    private int add(byte kind, int start) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            skips = Arrays.copyOf(skips, capacity);
+            escaped = Arrays.copyOf(escaped, capacity);
+        }
+        kinds[size] = kind;
+        starts[size] = start;
+        return size++;
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package de.thecoolcraft11.commandBundle;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads selected paths out of a JSON stream without keeping the rest of the document.
+ * Paths use the same form as {@link JsonDocument} ({@code data.items.0.name}) but must match exactly.
+ * Parts of the document that do not lead to a wanted path are skipped character by character,
+ * and reading stops as soon as every path has been found. Values are returned like {@link JsonDocument#get}.
+ */
+public final class JsonFieldExtractor {
+    private static final int MAX_DEPTH = 512;
+
+    private final Reader in;
+    private final Set<String> paths;
+    private final Set<String> prefixes = new HashSet<>();
+    private final Map<String, String> found = new HashMap<>();
+    private final StringBuilder path = new StringBuilder();
+    /**
+     * Raw text of wanted objects and arrays that are being read
+     */
+    private final List<StringBuilder> recorders = new ArrayList<>(1);
+    private int peeked = -2;
+
+    private JsonFieldExtractor(Reader in, Collection<String> paths) {
+        this.in = in;
+        this.paths = new HashSet<>(paths);
+        for (String wanted : this.paths) {
+            prefixes.add("");
+            for (int dot = wanted.indexOf('.'); dot != -1; dot = wanted.indexOf('.', dot + 1)) {
+                prefixes.add(wanted.substring(0, dot));
+            }
+        }
+    }
+
+    /**
+     * @return the value of every wanted path that exists in the document
+     * @throws IOException if reading fails or the document is not valid JSON up to the last needed value
+     */
+    public static Map<String, String> extract(Reader in, Collection<String> paths) throws IOException {
+        JsonFieldExtractor extractor = new JsonFieldExtractor(in, paths);
+        if (!extractor.paths.isEmpty()) {
+            extractor.value(0);
+        }
+        return extractor.found;
+    }
+
+    private boolean isComplete() {
+        return found.size() == paths.size();
+    }
+
+    private void value(int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw malformed("too deeply nested");
+        }
+        String current = path.toString();
+        boolean wanted = paths.contains(current);
+        boolean descend = prefixes.contains(current);
+
+        int c = peekNonWhitespace();
+        if (!wanted && !descend) {
+            skipValue();
+        } else if (c == '"') {
+            String text = readString();
+            if (wanted) {
+                found.put(current, text);
+            }
+        } else if (c == '{' || c == '[') {
+            StringBuilder recorder = null;
+            if (wanted) {
+                recorder = new StringBuilder();
+                recorders.add(recorder);
+            }
+            if (descend) {
+                container(depth, c == '{');
+            } else {
+                skipValue();
+            }
+            if (recorder != null) {
+                recorders.remove(recorder);
+                found.put(current, recorder.toString());
+            }
+        } else {
+            String literal = readLiteral();
+            if (wanted) {
+                found.put(current, literal);
+            }
+        }
+    }
+
+    private void container(int depth, boolean object) throws IOException {
+        next();
+        char close = object ? '}' : ']';
+        if (peekNonWhitespace() == close) {
+            next();
+            return;
+        }
+
+        int length = path.length();
+        int index = 0;
+        while (true) {
+            if (length > 0) {
+                path.append('.');
+            }
+            if (object) {
+                if (peekNonWhitespace() != '"') {
+                    throw malformed("expected key");
+                }
+                path.append(readString());
+                if (peekNonWhitespace() != ':') {
+                    throw malformed("expected ':'");
+                }
+                next();
+            } else {
+                path.append(index++);
+            }
+            value(depth + 1);
+            path.setLength(length);
+            if (isComplete()) {
+                return;
+            }
+
+            peekNonWhitespace();
+            int separator = next();
+            if (separator == close) {
+                return;
+            }
+            if (separator != ',') {
+                throw malformed("expected ',' or '" + close + "'");
+            }
+        }
+    }
+
+    /**
+     * Skip one value, only tracking nesting and strings
+     */
+    private void skipValue() throws IOException {
+        int c = peekNonWhitespace();
+        if (c == '"') {
+            skipString();
+            return;
+        }
+        if (c != '{' && c != '[') {
+            readLiteral();
+            return;
+        }
+
+        int depth = 0;
+        do {
+            c = peek();
+            if (c == '"') {
+                skipString();
+                continue;
+            }
+            next();
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    private String readString() throws IOException {
+        next();
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            int c = next();
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append((char) c);
+                continue;
+            }
+            int escaped = next();
+            switch (escaped) {
+                case 'n' -> builder.append('\n');
+                case 't' -> builder.append('\t');
+                case 'r' -> builder.append('\r');
+                case 'b' -> builder.append('\b');
+                case 'f' -> builder.append('\f');
+                case 'u' -> {
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(next(), 16);
+                        if (digit < 0) {
+                            throw malformed("bad unicode escape");
+                        }
+                        code = code * 16 + digit;
+                    }
+                    builder.append((char) code);
+                }
+                default -> builder.append((char) escaped);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        next();
+        while (true) {
+            int c = next();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                next();
+            }
+        }
+    }
+
+    private String readLiteral() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int c = peek();
+        while (c != -1 && ",}] \t\r\n".indexOf(c) == -1) {
+            builder.append((char) next());
+            c = peek();
+        }
+        String literal = builder.toString();
+        if (!literal.equals("true") && !literal.equals("false") && !literal.equals("null")
+                && (literal.isEmpty() || "-0123456789".indexOf(literal.charAt(0)) == -1)) {
+            throw malformed("expected a value");
+        }
+        return literal;
+    }
+
+    private int peekNonWhitespace() throws IOException {
+        int c = peek();
+        while (c != -1 && Character.isWhitespace(c)) {
+            next();
+            c = peek();
+        }
+        if (c == -1) {
+            throw malformed("unexpected end");
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = in.read();
+        }
+        return peeked;
+    }
+
+    /**
+     * Consume one character; the end of the stream is an error here
+     */
+    private int next() throws IOException {
+        int c = peek();
+        if (c == -1) {
+            throw malformed("unexpected end");
+        }
+        peeked = -2;
+        for (StringBuilder recorder : recorders) {
+            recorder.append((char) c);
+        }
+        return c;
+    }
+
+    private static IOException malformed(String reason) {
+        return new IOException("Response is not valid JSON (" + reason + ")");
+    }
+}
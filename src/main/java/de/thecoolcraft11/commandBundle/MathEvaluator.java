@@ -1,12 +1,62 @@
 package de.thecoolcraft11.commandBundle;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Evaluates {@code {math:...}} expressions.
+ * An expression is compiled once into a small stack program (postfix opcodes plus a constant pool)
+ * and kept in a bounded LRU cache by its text; evaluating runs the program on a reused {@code double[]} stack.
+ * Programs give exactly the results and errors of reading the text as before: functions are still replaced by
+ * their result in the text first (innermost call without parentheses in its argument), and an error is raised
+ * at the point where evaluating the tokens would have raised it.
+ * <p>
+ * {@link #compile(String[])} compiles an expression whose operands are only known at evaluation time
+ * ({@code {math:%var:score%+1}}), so one program serves every value.
+ */
 public class MathEvaluator {
+    private static final int CACHE_SIZE = 512;
+
+    private static final byte PUSH = 0;
+    private static final byte ADD = 1;
+    private static final byte SUBTRACT = 2;
+    private static final byte MULTIPLY = 3;
+    private static final byte DIVIDE = 4;
+    private static final byte POWER = 5;
+    private static final byte MODULO = 6;
+    private static final byte NEGATE = 7;
+    /**
+     * Operator stack marker for an opening parenthesis; left over at the end, it fails like an invalid number
+     */
+    private static final byte OPEN = 8;
+    private static final byte LOAD = 9;
+
+    private static final char OPERAND_BASE = '\uFA00';
+    private static final int MAX_OPERANDS = 0x100;
+
+    private static final Pattern FUNCTION = Pattern.compile("(sqrt|int|round)\\s*\\(([^()]+)\\)");
+    private static final Pattern FUNCTION_NAME = Pattern.compile("(sqrt|int|round)\\s*\\(");
+
+    /**
+     * Programs by expression text, as read without function replacement (range bounds, function arguments)
+     */
+    private static final Map<String, Program> cache = newCache();
+    /**
+     * Programs by expression text with functions replaced, for expressions that contain a function call
+     */
+    private static final Map<String, Program> functionCache = newCache();
+
+    private static volatile long maxRangeSize = 100000;
+
+    private static final ThreadLocal<double[]> stacks = ThreadLocal.withInitial(() -> new double[16]);
+    private static final ThreadLocal<double[]> operandValues = ThreadLocal.withInitial(() -> new double[8]);
 
     public static String evaluate(String expression) {
         try {
@@ -18,226 +68,590 @@ public class MathEvaluator {
             }
 
 
-            expression = replaceFunctions(expression);
-
-
-            double result = evaluateExpression(expression);
-
-
-            if (result == Math.floor(result) && !Double.isInfinite(result)) {
-                return String.valueOf((long) result);
-            }
-
-            return String.valueOf(result);
+            return format(compileWithFunctions(expression).evaluate(null));
         } catch (Exception e) {
             return "ERROR: " + e.getMessage();
         }
     }
 
-    private static String evaluateRange(String expression) {
-        String[] parts = expression.split("\\.\\.");
-        if (parts.length != 2) {
-            throw new IllegalArgumentException("Invalid range expression");
-        }
-
-        int start = (int) evaluateExpression(parts[0].trim());
-        int end = (int) evaluateExpression(parts[1].trim());
-
-        List<String> numbers = new ArrayList<>();
-        if (start <= end) {
-            for (int i = start; i <= end; i++) {
-                numbers.add(String.valueOf(i));
+    private static Map<String, Program> newCache() {
+        return Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+                return size() > CACHE_SIZE;
             }
-        } else {
-            for (int i = start; i >= end; i--) {
-                numbers.add(String.valueOf(i));
+        });
+    }
+
+    private static Program compileWithFunctions(String expression) {
+        if (!FUNCTION_NAME.matcher(expression).find()) {
+            return compile(expression);
+        }
+        Program program = functionCache.get(expression);
+        if (program == null) {
+            try {
+                program = compile(replaceFunctions(expression));
+            } catch (IllegalArgumentException e) {
+                program = new Program(e.getMessage());
             }
+            functionCache.put(expression, program);
         }
-
-        return String.join(",", numbers);
+        return program;
     }
 
+    /**
+     * Replace innermost function calls by their result as text until none are left
+     */
     private static String replaceFunctions(String expression) {
-
-        Pattern pattern = Pattern.compile("(sqrt|int|round)\\s*\\(([^()]+)\\)");
-
         while (true) {
-            Matcher matcher = pattern.matcher(expression);
+            Matcher matcher = FUNCTION.matcher(expression);
             if (!matcher.find()) {
-                break;
+                return expression;
             }
 
-            String function = matcher.group(1);
-            String args = matcher.group(2);
-
-            double argValue = evaluateExpression(args);
-            double result = switch (function) {
+            double argValue = compile(matcher.group(2)).evaluate(null);
+            double result = switch (matcher.group(1)) {
                 case "sqrt" -> Math.sqrt(argValue);
                 case "int" -> (long) argValue;
-                case "round" -> Math.round(argValue);
-                default -> throw new IllegalArgumentException("Unknown function: " + function);
+                default -> Math.round(argValue);
             };
 
             expression = expression.substring(0, matcher.start())
                     + result
                     + expression.substring(matcher.end());
         }
-
-        return expression;
     }
 
-    private static double evaluateExpression(String expression) {
-        expression = expression.trim().replaceAll("\\s+", "");
-
-        if (expression.isEmpty()) {
-            throw new IllegalArgumentException("Empty expression");
+    private static String format(double result) {
+        if (result == Math.floor(result) && !Double.isInfinite(result)) {
+            return String.valueOf((long) result);
         }
 
-        List<String> postfix = infixToPostfix(expression);
-        return evaluatePostfix(postfix);
+        return String.valueOf(result);
     }
 
-    private static List<String> infixToPostfix(String expression) {
-        List<String> output = new ArrayList<>();
-        Stack<String> operators = new Stack<>();
-
-        int i = 0;
-        while (i < expression.length()) {
-            char c = expression.charAt(i);
+    /**
+     * Compile an expression with runtime operands between the given literal pieces
+     * ({@code "", "+1"} for {@code <operand>+1}).
+     */
+    public static Expression compile(String[] literals) {
+        return new Expression(literals);
+    }
 
+    /**
+     * Expression with operands that are filled in at evaluation time. Operands that are plain numbers go straight
+     * onto the stack; anything else is inserted into the text and evaluated like {@link #evaluate(String)},
+     * which is also what the result always equals.
+     */
+    public static final class Expression {
+        private final String[] literals;
+        /**
+         * Null when inserting the operands as text could change how the expression is read,
+         * e.g. when an operand touches a digit
+         */
+        private final Program program;
+
+        private Expression(String[] literals) {
+            this.literals = literals;
+            Program compiled = null;
+            if (literals.length - 1 <= MAX_OPERANDS) {
+                StringBuilder text = new StringBuilder();
+                boolean plainText = true;
+                for (int i = 0; i < literals.length && plainText; i++) {
+                    if (i > 0) {
+                        text.append((char) (OPERAND_BASE + i - 1));
+                    }
+                    String literal = literals[i];
+                    for (int j = 0; j < literal.length() && plainText; j++) {
+                        char c = literal.charAt(j);
+                        plainText = !isOperand(c) && c != '\u0000';
+                    }
+                    text.append(literal);
+                }
+                String joined = text.toString();
+                // function calls are replaced in the text before it is read, which depends on the operand values
+                if (plainText && !joined.contains("..") && !FUNCTION_NAME.matcher(joined).find()) {
+                    try {
+                        compiled = new Compiler(joined, true).compile();
+                    } catch (IllegalArgumentException ignored) {
+                    }
+                }
+            }
+            this.program = compiled;
+        }
 
-            if (Character.isWhitespace(c)) {
-                i++;
-                continue;
+        public String evaluate(String[] operands) {
+            if (program != null) {
+                double[] values = operandValues.get();
+                if (values.length < operands.length) {
+                    values = new double[operands.length];
+                    operandValues.set(values);
+                }
+                boolean plain = true;
+                for (int i = 0; i < operands.length && plain; i++) {
+                    String operand = operands[i];
+                    plain = isPlainNumber(operand) && (operand.charAt(0) != '-' || program.signedOperands[i]);
+                    if (plain) {
+                        values[i] = Double.parseDouble(operand);
+                    }
+                }
+                if (plain) {
+                    try {
+                        return format(program.evaluate(values));
+                    } catch (IllegalArgumentException e) {
+                        return "ERROR: " + e.getMessage();
+                    }
+                }
             }
 
+            StringBuilder text = new StringBuilder(literals[0]);
+            for (int i = 0; i < operands.length; i++) {
+                text.append(operands[i]).append(literals[i + 1]);
+            }
+            return MathEvaluator.evaluate(text.toString());
+        }
 
-            if (Character.isDigit(c) || c == '.') {
-                StringBuilder number = new StringBuilder();
-                while (i < expression.length() && (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
-                    number.append(expression.charAt(i));
-                    i++;
+        /**
+         * Digits with at most one leading '-', which the text form reads as exactly one number
+         */
+        private static boolean isPlainNumber(String value) {
+            int start = value.startsWith("-") ? 1 : 0;
+            if (value.length() == start) {
+                return false;
+            }
+            boolean digit = false;
+            for (int i = start; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    digit = true;
+                } else if (c != '.') {
+                    return false;
                 }
-                output.add(number.toString());
-                continue;
             }
+            return digit && value.indexOf('.') == value.lastIndexOf('.');
+        }
+    }
 
+    /**
+     * Range written out as comma-separated numbers, limited to {@link #setMaxRangeSize the configured size}
+     */
+    private static String evaluateRange(String expression) {
+        Range range = parseRange(expression);
+        if (range.size() > maxRangeSize) {
+            throw new IllegalArgumentException("Range has more than " + maxRangeSize + " values");
+        }
 
-            if (c == '-' && (i == 0 || isOperator(expression.charAt(i - 1)) || expression.charAt(i - 1) == '(')) {
-                i++;
-                StringBuilder number = new StringBuilder("-");
-                while (i < expression.length() && (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
-                    number.append(expression.charAt(i));
-                    i++;
-                }
-                output.add(number.toString());
-                continue;
+        StringBuilder numbers = new StringBuilder();
+        for (PrimitiveIterator.OfLong it = range.values(); it.hasNext(); ) {
+            if (!numbers.isEmpty()) {
+                numbers.append(',');
             }
+            numbers.append(it.nextLong());
+        }
+        return numbers.toString();
+    }
 
+    /**
+     * Largest number of values a {@code {math:a..b}} range may expand to in text
+     */
+    public static void setMaxRangeSize(long size) {
+        maxRangeSize = Math.max(0, size);
+    }
 
-            if (c == '(') {
-                operators.push(String.valueOf(c));
-                i++;
-                continue;
+    /**
+     * Parse {@code start..end} or {@code start..end..step}. Each part may be an expression; bounds are truncated
+     * to whole numbers. The range counts down if {@code end} is below {@code start}, so only the size of the step
+     * matters.
+     *
+     * @throws IllegalArgumentException if the text is not a valid range
+     */
+    public static Range parseRange(String expression) {
+        String[] parts = expression.trim().split("\\.\\.", -1);
+        if (parts.length != 2 && parts.length != 3) {
+            throw new IllegalArgumentException("Invalid range expression");
+        }
+
+        long start = (long) compile(parts[0].trim()).evaluate(null);
+        long end = (long) compile(parts[1].trim()).evaluate(null);
+        long step = 1;
+        if (parts.length == 3) {
+            step = (long) compile(parts[2].trim()).evaluate(null);
+            step = step == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(step);
+            if (step == 0) {
+                throw new IllegalArgumentException("Range step must not be zero");
             }
+        }
+        return new Range(start, end, step);
+    }
+
+    /**
+     * Numbers from {@code start} towards {@code end} (inclusive) in steps of {@code step}, produced on demand
+     */
+    public record Range(long start, long end, long step) implements Iterable<String> {
+        public long size() {
+            // unsigned, the distance between two longs may not fit into a signed one
+            long distance = start <= end ? end - start : start - end;
+            long steps = Long.divideUnsigned(distance, step);
+            return steps < 0 || steps == Long.MAX_VALUE ? Long.MAX_VALUE : steps + 1;
+        }
 
+        public PrimitiveIterator.OfLong values() {
+            long count = size();
+            long increment = start <= end ? step : -step;
+            return new PrimitiveIterator.OfLong() {
+                private long remaining = count;
+                private long next = start;
 
-            if (c == ')') {
-                while (!operators.isEmpty() && !operators.peek().equals("(")) {
-                    output.add(operators.pop());
+                @Override
+                public boolean hasNext() {
+                    return remaining > 0;
                 }
-                if (!operators.isEmpty()) {
-                    operators.pop();
+
+                @Override
+                public long nextLong() {
+                    if (remaining <= 0) {
+                        throw new NoSuchElementException();
+                    }
+                    remaining--;
+                    long value = next;
+                    next += increment;
+                    return value;
                 }
-                i++;
-                continue;
-            }
+            };
+        }
 
+        @Override
+        public Iterator<String> iterator() {
+            PrimitiveIterator.OfLong values = values();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return values.hasNext();
+                }
 
-            if (isOperator(c)) {
-                String op = String.valueOf(c);
-                while (!operators.isEmpty() && !operators.peek().equals("(") &&
-                        precedence(operators.peek()) >= precedence(op)) {
-                    output.add(operators.pop());
+                @Override
+                public String next() {
+                    return String.valueOf(values.nextLong());
                 }
-                operators.push(op);
-                i++;
-                continue;
-            }
+            };
+        }
+    }
 
-            i++;
+    /**
+     * Compiled form of an expression, from the cache if it was seen before.
+     * Invalid expressions are cached too and fail again on every evaluation.
+     */
+    private static Program compile(String expression) {
+        Program program = cache.get(expression);
+        if (program == null) {
+            program = new Compiler(expression, false).compile();
+            cache.put(expression, program);
         }
+        return program;
+    }
 
+    private static final class Program {
+        private final byte[] code;
+        private final double[] constants;
+        private final int[] operands;
+        /**
+         * Whether a negative value of each operand would be read as a negative number in the text form
+         */
+        private final boolean[] signedOperands;
+        private final int maxDepth;
+        /**
+         * Raised after the code ran, if not null; the code stops where reading the text would have failed
+         */
+        private final String error;
+
+        private Program(byte[] code, double[] constants, int[] operands, boolean[] signedOperands, int maxDepth,
+                        String error) {
+            this.code = code;
+            this.constants = constants;
+            this.operands = operands;
+            this.signedOperands = signedOperands;
+            this.maxDepth = maxDepth;
+            this.error = error;
+        }
 
-        while (!operators.isEmpty()) {
-            output.add(operators.pop());
+        private Program(String error) {
+            this(new byte[0], new double[0], new int[0], new boolean[0], 0, error);
         }
 
-        return output;
+        private double evaluate(double[] operandValues) {
+            double[] stack = stacks.get();
+            if (stack.length < maxDepth) {
+                stack = new double[maxDepth];
+                stacks.set(stack);
+            }
+
+            int top = 0;
+            int constant = 0;
+            int operand = 0;
+            for (byte op : code) {
+                switch (op) {
+                    case PUSH -> stack[top++] = constants[constant++];
+                    case LOAD -> stack[top++] = operandValues[operands[operand++]];
+                    case NEGATE -> stack[top - 1] = -stack[top - 1];
+                    default -> {
+                        double b = stack[--top];
+                        double a = stack[top - 1];
+                        stack[top - 1] = switch (op) {
+                            case ADD -> a + b;
+                            case SUBTRACT -> a - b;
+                            case MULTIPLY -> a * b;
+                            case DIVIDE -> {
+                                if (b == 0) {
+                                    throw new IllegalArgumentException("Division by zero");
+                                }
+                                yield a / b;
+                            }
+                            case POWER -> Math.pow(a, b);
+                            default -> a % b;
+                        };
+                    }
+                }
+            }
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
+            return stack[0];
+        }
     }
 
     /**
-     * Evaluate postfix expression
+     * Shunting-yard over the trimmed expression with whitespace removed, emitting opcodes instead of tokens.
+     * Binary operators are left-associative; a '-' at the start, after an operator or after '(' is a sign:
+     * directly before a number it is part of the number, on its own it is read as a subtraction.
+     * Characters that are not part of the grammar are skipped. Operand markers are read like numbers.
+     * <p>
+     * The first token that fails when evaluated ends the code and becomes the program's error.
+     * Only operands that would merge with a neighbouring number throw, as they have no program.
      */
-    private static double evaluatePostfix(List<String> postfix) {
-        Stack<Double> stack = new Stack<>();
-
-        for (String token : postfix) {
-            if (isOperatorString(token)) {
-                if (stack.size() < 2) {
-                    throw new IllegalArgumentException("Invalid expression");
-                }
-
-                double b = stack.pop();
-                double a = stack.pop();
-                double result = switch (token) {
-                    case "+" -> a + b;
-                    case "-" -> a - b;
-                    case "*" -> a * b;
-                    case "/" -> {
-                        if (b == 0) {
-                            throw new IllegalArgumentException("Division by zero");
-                        }
-                        yield a / b;
+    private static final class Compiler {
+        private final String expression;
+        private final boolean withOperands;
+        private byte[] code = new byte[16];
+        private int codeLength;
+        private double[] constants = new double[8];
+        private int constantCount;
+        private int[] operands = new int[0];
+        private boolean[] signedOperands = new boolean[0];
+        private int depth;
+        private int maxDepth;
+        private String error;
+
+        private Compiler(String source, boolean withOperands) {
+            this.withOperands = withOperands;
+            source = source.trim();
+            StringBuilder stripped = new StringBuilder(source.length());
+            for (int i = 0; i < source.length(); i++) {
+                char c = source.charAt(i);
+                // only what \s matches, other whitespace is skipped later but still ends a sign position
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+                    stripped.append(c);
+                }
+            }
+            this.expression = stripped.toString();
+        }
+
+        private Program compile() {
+            if (expression.isEmpty()) {
+                return new Program("Empty expression");
+            }
+
+            byte[] operators = new byte[16];
+            int operatorCount = 0;
+
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+
+                if (Character.isDigit(c) || c == '.') {
+                    i = number(i, i);
+                    continue;
+                }
+
+                if (withOperands && isOperand(c)) {
+                    operand(i, i == 0 || isOperator(expression.charAt(i - 1)) || expression.charAt(i - 1) == '(');
+                    i++;
+                    continue;
+                }
+
+                if (c == '-' && (i == 0 || isOperator(expression.charAt(i - 1)) || expression.charAt(i - 1) == '(')) {
+                    if (i + 1 < expression.length() && (Character.isDigit(expression.charAt(i + 1)) || expression.charAt(i + 1) == '.')) {
+                        i = number(i, i + 1);
+                        continue;
+                    }
+                    if (withOperands && i + 1 < expression.length() && isOperand(expression.charAt(i + 1))) {
+                        // the text form reads this sign as part of the number, binding tighter than any operator
+                        operand(i + 1, false);
+                        emit(NEGATE);
+                        i += 2;
+                        continue;
                     }
-                    case "^" -> Math.pow(a, b);
-                    case "%" -> a % b;
-                    default -> throw new IllegalArgumentException("Unknown operator: " + token);
-                };
+                    // a sign without digits is a "-" token of its own, which subtracts
+                    emit(SUBTRACT);
+                    i++;
+                    continue;
+                }
 
-                stack.push(result);
-            } else {
+                if (c == '(') {
+                    operators = push(operators, operatorCount++, OPEN);
+                    i++;
+                    continue;
+                }
+
+                if (c == ')') {
+                    while (operatorCount > 0 && operators[operatorCount - 1] != OPEN) {
+                        emit(operators[--operatorCount]);
+                    }
+                    if (operatorCount > 0) {
+                        operatorCount--;
+                    }
+                    i++;
+                    continue;
+                }
 
-                try {
-                    stack.push(Double.parseDouble(token));
-                } catch (NumberFormatException e) {
-                    throw new IllegalArgumentException("Invalid number: " + token);
+                if (isOperator(c)) {
+                    byte op = binary(c);
+                    while (operatorCount > 0 && operators[operatorCount - 1] != OPEN
+                            && precedence(operators[operatorCount - 1]) >= precedence(op)) {
+                        emit(operators[--operatorCount]);
+                    }
+                    operators = push(operators, operatorCount++, op);
+                    i++;
+                    continue;
                 }
+
+                i++;
+            }
+
+            while (operatorCount > 0) {
+                emit(operators[--operatorCount]);
+            }
+
+            if (error == null && depth != 1) {
+                error = "Invalid expression";
+            }
+            return new Program(Arrays.copyOf(code, codeLength), Arrays.copyOf(constants, constantCount),
+                    operands, signedOperands, maxDepth, error);
+        }
+
+        /**
+         * An operand that would merge with a neighbouring number in the text form has no symbolic meaning
+         */
+        private void operand(int index, boolean signed) {
+            char previous = index > 0 ? expression.charAt(index - 1) : ' ';
+            char next = index + 1 < expression.length() ? expression.charAt(index + 1) : ' ';
+            if (mergesWithNumber(previous) || mergesWithNumber(next)) {
+                throw new IllegalArgumentException("Operand is not separated from a number");
+            }
+
+            int slot = expression.charAt(index) - OPERAND_BASE;
+            if (slot >= signedOperands.length) {
+                signedOperands = Arrays.copyOf(signedOperands, slot + 1);
+            }
+            signedOperands[slot] = signed;
+            operands = Arrays.copyOf(operands, operands.length + 1);
+            operands[operands.length - 1] = slot;
+            emit(LOAD);
+        }
+
+        private static boolean mergesWithNumber(char c) {
+            return Character.isDigit(c) || c == '.' || isOperand(c);
+        }
+
+        /**
+         * Emit the number starting at {@code start} (including a sign) whose digits begin at {@code digits}
+         */
+        private int number(int start, int digits) {
+            int end = digits;
+            while (end < expression.length() && (Character.isDigit(expression.charAt(end)) || expression.charAt(end) == '.')) {
+                end++;
+            }
+            if (error != null) {
+                return end;
             }
+            String token = expression.substring(start, end);
+            double value;
+            try {
+                value = Double.parseDouble(token);
+            } catch (NumberFormatException e) {
+                error = "Invalid number: " + token;
+                return end;
+            }
+
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, constantCount * 2);
+            }
+            constants[constantCount++] = value;
+            emit(PUSH);
+            return end;
         }
 
-        if (stack.size() != 1) {
-            throw new IllegalArgumentException("Invalid expression");
+        /**
+         * Append an opcode, checking that the stack holds enough operands for it
+         */
+        private void emit(byte op) {
+            if (error != null) {
+                return;
+            }
+            if (op == OPEN) {
+                error = "Invalid number: (";
+                return;
+            }
+            if (op == PUSH || op == LOAD) {
+                depth++;
+                maxDepth = Math.max(maxDepth, depth);
+            } else if (op != NEGATE) {
+                if (depth < 2) {
+                    error = "Invalid expression";
+                    return;
+                }
+                depth--;
+            }
+
+            if (codeLength == code.length) {
+                code = Arrays.copyOf(code, codeLength * 2);
+            }
+            code[codeLength++] = op;
         }
 
-        return stack.pop();
+        private static byte[] push(byte[] stack, int size, byte op) {
+            if (size == stack.length) {
+                stack = Arrays.copyOf(stack, size * 2);
+            }
+            stack[size] = op;
+            return stack;
+        }
     }
 
     private static boolean isOperator(char c) {
         return c == '+' || c == '-' || c == '*' || c == '/' || c == '^' || c == '%';
     }
 
-    private static boolean isOperatorString(String s) {
-        return s.length() == 1 && isOperator(s.charAt(0));
+    private static boolean isOperand(char c) {
+        return c >= OPERAND_BASE && c < OPERAND_BASE + MAX_OPERANDS;
     }
 
-    private static int precedence(String op) {
+    private static byte binary(char c) {
+        return switch (c) {
+            case '+' -> ADD;
+            case '-' -> SUBTRACT;
+            case '*' -> MULTIPLY;
+            case '/' -> DIVIDE;
+            case '^' -> POWER;
+            default -> MODULO;
+        };
+    }
+
+    private static int precedence(byte op) {
         return switch (op) {
-            case "+", "-" -> 1;
-            case "*", "/", "%" -> 2;
-            case "^" -> 3;
+            case ADD, SUBTRACT -> 1;
+            case MULTIPLY, DIVIDE, MODULO -> 2;
+            case POWER -> 3;
             default -> 0;
         };
     }
 }
-
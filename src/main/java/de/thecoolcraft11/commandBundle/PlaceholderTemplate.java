@@ -0,0 +1,1289 @@
+package de.thecoolcraft11.commandBundle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Action text compiled into a list of literal and placeholder segments.
+ * <p>
+ * Placeholders are replaced by a chain of string-rewrite passes (escapes, arguments, player fields,
+ * variables, server constants, file helpers, command substitution, math), each written once in {@link Chain}.
+ * Compiling runs the chain with every runtime value replaced by an opaque marker character; what is left
+ * is a segment list that renders in one pass into a single builder. The same passes with the real values
+ * inserted are the fallback, so the output of both is always identical.
+ * <p>
+ * A compiled form depends on the argument count, the sender type and whether command substitution
+ * is enabled, so one is kept per combination. The chain runs with the real values only when
+ * <ul>
+ *     <li>the text does not compile: it contains a NUL or marker character, a {@code %arg...%} placeholder
+ *     would only be complete with an inserted value, or it needs too many segments;</li>
+ *     <li>a value would be read again by a later pass: it contains {@code %}, {@code ,,}, {@code ;;},
+ *     {@code &(}, <code>{math:</code>, an escape sentinel or a character that ends the file, substitution
+ *     or math text around it, or it forms such a sequence with its neighbours;</li>
+ *     <li>a fallback variable ({@code %name%}) is named by a value and the name is not a plain lookup,
+ *     or a name the compiler had to leave in the text turns out to have a value.</li>
+ * </ul>
+ * An unsafe command substitution result or a math result containing a NUL character only reruns
+ * the passes after it.
+ */
+public final class PlaceholderTemplate {
+
+    public enum PlayerField {
+        PLAYER("%player%"),
+        UUID("%uuid%"),
+        PLAYER_UUID("%player_uuid%"),
+        WORLD("%world%"),
+        X("%x%"),
+        Y("%y%"),
+        Z("%z%"),
+        HEALTH("%health%"),
+        LEVEL("%level%"),
+        GAMEMODE("%gamemode%");
+
+        private final String placeholder;
+
+        PlayerField(String placeholder) {
+            this.placeholder = placeholder;
+        }
+
+        public String getPlaceholder() {
+            return placeholder;
+        }
+    }
+
+    public enum ServerConstant {
+        PLAYERS("%players%"),
+        PLAYERS_UUID("%players_uuid%"),
+        PLAYER_COUNT("%playercount%"),
+        TEAMS("%teams%");
+
+        private final String placeholder;
+
+        ServerConstant(String placeholder) {
+            this.placeholder = placeholder;
+        }
+
+        public String getPlaceholder() {
+            return placeholder;
+        }
+    }
+
+    /**
+     * Supplies runtime values while a template is rendered for one sender.
+     */
+    public interface Resolver {
+        boolean isPlayer();
+
+        boolean isSubstitutionEnabled();
+
+        String playerField(PlayerField field);
+
+        String variable(String spec);
+
+        String fallbackVariable(String name);
+
+        String serverConstant(ServerConstant constant);
+
+        String teamPlayers(String teamName, boolean uuids);
+
+        String readFile(String fileSpec);
+
+        void writeFile(String fileSpec);
+
+        String substitute(String command);
+    }
+
+    private static final int MAX_CACHED_ARGS = 16;
+    private static final char MARKER_BASE = '\uE000';
+    private static final int MAX_NODES = 0x1800;
+    private static final int CONTEXT_LENGTH = 24;
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int OPEN_ANY = 2;
+
+    private static final Set<String> RESERVED_PREFIXES = Set.of("player", "uuid", "players", "players_uuid",
+            "playercount", "teams", "teamplayers", "teamplayers_uuid", "arg", "var", "count");
+    private static final Set<String> PLAYER_FIELD_NAMES = Set.of("player", "uuid", "player_uuid", "world",
+            "x", "y", "z", "health", "level", "gamemode");
+    private static final String[] STRADDLE_PATTERNS = {"%players%", "%players_uuid%", "%playercount%", "%teams%",
+            "%teamplayers:", "%teamplayers_uuid:"};
+    private static final String[] TRIGGERS = {"%args%", "%arg", "%player%", "%uuid%", "%player_uuid%", "%world%",
+            "%x%", "%y%", "%z%", "%health%", "%level%", "%gamemode%", "%var:", "%players%", "%players_uuid%",
+            "%playercount%", "%teams%", "%teamplayers:", "%teamplayers_uuid:", ",,", ";;", "&(", "{math:"};
+    private static final String[] LOOP_TRIGGERS;
+
+    static {
+        String[] escapes = {"\\ ", "\\\n", "\\\\", "\\|", "\\%", "\\:", "\\[", "\\]"};
+        LOOP_TRIGGERS = Arrays.copyOf(TRIGGERS, TRIGGERS.length + escapes.length);
+        System.arraycopy(escapes, 0, LOOP_TRIGGERS, TRIGGERS.length, escapes.length);
+    }
+
+    private final String source;
+    private final String loopVariable;
+    private final Shape[] shapes = new Shape[MAX_CACHED_ARGS * 4];
+
+    private PlaceholderTemplate(String source, String loopVariable) {
+        this.source = source;
+        this.loopVariable = loopVariable;
+    }
+
+    public static PlaceholderTemplate of(String source) {
+        return new PlaceholderTemplate(source, null);
+    }
+
+    /**
+     * Template for a foreach body, where {@code %<loopVariable>%} is filled with the current item
+     */
+    public static PlaceholderTemplate forLoop(String source, String loopVariable) {
+        return new PlaceholderTemplate(source, loopVariable);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String render(Resolver resolver, String[] args) {
+        return render(resolver, args, null);
+    }
+
+    public String render(Resolver resolver, String[] args, String loopItem) {
+        Shape shape = shape(args.length, resolver.isPlayer(), resolver.isSubstitutionEnabled());
+        if (shape.uncompiled) {
+            return rewrite(resolver, args, loopItem, false);
+        }
+        return render(shape, resolver, args, loopItem, false);
+    }
+
+    /**
+     * Render everything that comes before the command substitution pass. The result still holds
+     * {@code &(...)}, math expressions and escape sentinels, exactly as the chain would see them there,
+     * and is completed with {@link #finish}. Used to collect all substitutions of a text up front.
+     */
+    public String renderUntilSubstitution(Resolver resolver, String[] args) {
+        Shape shape = shape(args.length, resolver.isPlayer(), true);
+        if (shape.uncompiled) {
+            return rewrite(resolver, args, null, true);
+        }
+        return render(shape, resolver, args, null, true);
+    }
+
+    /**
+     * Complete a text from {@link #renderUntilSubstitution}: command substitution through {@code substitution},
+     * then math and escapes
+     */
+    public static String finish(String text, Function<String, String> substitution) {
+        return new Rewrite(true, substitution).finish(text);
+    }
+
+    /**
+     * The {@code &(...)} commands the substitution pass will find in a text from {@link #renderUntilSubstitution},
+     * in order
+     */
+    public static List<String> findSubstitutions(String text) {
+        List<String> commands = new ArrayList<>();
+        int start = text.indexOf("&(");
+        while (start != -1) {
+            int end = findMatchingParenthesis(text, start + 2);
+            if (end == -1) break;
+            commands.add(text.substring(start + 2, end));
+            start = text.indexOf("&(", end + 1);
+        }
+        return commands;
+    }
+
+    private String render(Shape shape, Resolver resolver, String[] args, String loopItem, boolean untilSubstitution) {
+
+        Node[] nodes = shape.nodes;
+        String[] values = new String[nodes.length];
+        boolean[] echoed = new boolean[nodes.length];
+
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = nodes[i];
+            if (untilSubstitution && (node.kind == Kind.SUBSTITUTION || node.kind == Kind.MATH)) {
+                return renderUnfinished(shape, values, -1);
+            }
+            String value;
+            switch (node.kind) {
+                case ARG -> value = args[node.index];
+                case JOIN -> value = String.join(" ", Arrays.copyOfRange(args, node.index, args.length));
+                case LOOP -> value = loopItem;
+                case PLAYER -> value = resolver.playerField(PlayerField.values()[node.index]);
+                case VAR -> value = resolver.variable(renderParts(node.spec, values));
+                case FALLBACK -> {
+                    value = resolver.fallbackVariable(node.token);
+                    if (value.isEmpty()) {
+                        value = "%" + node.token + "%";
+                        echoed[i] = true;
+                    }
+                }
+                case FALLBACK_DYNAMIC -> {
+                    String token = renderParts(node.spec, values);
+                    if (!isLookupToken(token)) {
+                        return rewrite(resolver, args, loopItem, untilSubstitution);
+                    }
+                    value = resolver.fallbackVariable(token);
+                    if (value.isEmpty()) {
+                        if (node.echoRisk || !isCleanToken(token)) {
+                            return rewrite(resolver, args, loopItem, untilSubstitution);
+                        }
+                        value = "%" + token + "%";
+                        echoed[i] = true;
+                    }
+                }
+                case PROBE -> {
+                    if (!resolver.fallbackVariable(node.token).isEmpty()) {
+                        return rewrite(resolver, args, loopItem, untilSubstitution);
+                    }
+                    value = "";
+                }
+                case CONSTANT -> value = resolver.serverConstant(ServerConstant.values()[node.index]);
+                case TEAM -> value = resolver.teamPlayers(renderParts(node.spec, values), node.uuids);
+                case READ -> value = resolver.readFile(renderParts(node.spec, values));
+                case WRITE -> {
+                    resolver.writeFile(renderParts(node.spec, values));
+                    value = "";
+                }
+                case SUBSTITUTION -> value = resolver.substitute(renderParts(node.spec, values));
+                case MATH -> value = node.math.evaluate(operands(node.spec, values));
+                default -> throw new IllegalStateException("Unknown segment: " + node.kind);
+            }
+            values[i] = value;
+
+            if (node.kind == Kind.MATH && value.indexOf('\u0000') != -1) {
+                return finish(renderUnfinished(shape, values, i), resolver);
+            }
+            if (echoed[i] || !node.kind.checked || isSafe(shape, node, value)) {
+                continue;
+            }
+            if (node.kind == Kind.SUBSTITUTION) {
+                return finish(renderUnfinished(shape, values, i), resolver);
+            }
+            return rewrite(resolver, args, loopItem, untilSubstitution);
+        }
+
+        if (untilSubstitution) {
+            return renderUnfinished(shape, values, -1);
+        }
+
+        int length = 0;
+        for (Part part : shape.parts) {
+            length += part.literal != null ? part.literal.length() : values[part.node].length();
+        }
+        StringBuilder result = new StringBuilder(length);
+        for (Part part : shape.parts) {
+            result.append(part.literal != null ? part.literal : values[part.node]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Run the passes on the source with the real values, up to and including the file-write pass
+     * if {@code untilSubstitution}
+     */
+    private String rewrite(Resolver resolver, String[] args, String loopItem, boolean untilSubstitution) {
+        Rewrite rewrite = new Rewrite(resolver, args, loopVariable, loopItem);
+        rewrite.text = source;
+        rewrite.head();
+        return untilSubstitution ? rewrite.text : rewrite.finish(rewrite.text);
+    }
+
+    private static String finish(String text, Resolver resolver) {
+        return new Rewrite(resolver.isSubstitutionEnabled(), resolver::substitute).finish(text);
+    }
+
+    private Shape shape(int argCount, boolean player, boolean substitution) {
+        if (argCount >= MAX_CACHED_ARGS) {
+            return new Compiler(source, loopVariable, argCount, player, substitution).compile();
+        }
+        int key = argCount * 4 + (player ? 2 : 0) + (substitution ? 1 : 0);
+        Shape shape = shapes[key];
+        if (shape == null) {
+            shape = new Compiler(source, loopVariable, argCount, player, substitution).compile();
+            shapes[key] = shape;
+        }
+        return shape;
+    }
+
+    private static String[] operands(Part[] parts, String[] values) {
+        int count = 0;
+        for (Part part : parts) {
+            if (part.literal == null) {
+                count++;
+            }
+        }
+        String[] operands = new String[count];
+        count = 0;
+        for (Part part : parts) {
+            if (part.literal == null) {
+                operands[count++] = values[part.node];
+            }
+        }
+        return operands;
+    }
+
+    /**
+     * Math expression with the literal text between nested nodes, so it is parsed once for all their values
+     */
+    private static MathEvaluator.Expression compileMath(Part[] parts) {
+        List<String> literals = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        for (Part part : parts) {
+            if (part.literal != null) {
+                literal.append(part.literal);
+            } else {
+                literals.add(literal.toString());
+                literal.setLength(0);
+            }
+        }
+        literals.add(literal.toString());
+        return MathEvaluator.compile(literals.toArray(new String[0]));
+    }
+
+    private static String renderParts(Part[] parts, String[] values) {
+        if (parts.length == 1) {
+            Part part = parts[0];
+            return part.literal != null ? part.literal : values[part.node];
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Part part : parts) {
+            builder.append(part.literal != null ? part.literal : values[part.node]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Rebuild the text as the chain sees it right after the substitution at {@code failedIndex}
+     * has been inserted, so the chain can finish from there without running anything twice.
+     */
+    private static String renderUnfinished(Shape shape, String[] values, int failedIndex) {
+        StringBuilder builder = new StringBuilder();
+        for (Part part : shape.rawParts) {
+            if (part.literal != null) {
+                builder.append(part.literal);
+            } else {
+                builder.append(renderUnresolved(shape, part.node, values, failedIndex));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String renderUnresolved(Shape shape, int index, String[] values, int failedIndex) {
+        Node node = shape.nodes[index];
+        if (node.kind == Kind.SUBSTITUTION && index > failedIndex) {
+            return "&(" + renderUnresolvedParts(shape, node.spec, values, failedIndex) + ")";
+        }
+        if (node.kind == Kind.MATH) {
+            return "{math:" + renderUnresolvedParts(shape, node.spec, values, failedIndex) + "}";
+        }
+        return values[index];
+    }
+
+    private static String renderUnresolvedParts(Shape shape, Part[] parts, String[] values, int failedIndex) {
+        StringBuilder builder = new StringBuilder();
+        for (Part part : parts) {
+            if (part.literal != null) {
+                builder.append(part.literal);
+            } else {
+                builder.append(renderUnresolved(shape, part.node, values, failedIndex));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isSafe(Shape shape, Node node, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' || c == '\u0000' || isMarker(c) || (c == '\\' && node.kind == Kind.LOOP)) {
+                return false;
+            }
+            if (c == '}' && (shape.openMath || (node.parents & Kind.MATH.bit) != 0)) {
+                return false;
+            }
+            if ((c == '(' || c == ')') && (shape.openSubstitution || (node.parents & Kind.SUBSTITUTION.bit) != 0)) {
+                return false;
+            }
+            if ((node.parents & (Kind.READ.bit | Kind.WRITE.bit)) != 0 && isFileSpecTerminator(c)) {
+                return false;
+            }
+        }
+        if (value.contains(",,") || value.contains(";;") || value.contains("&(") || value.contains("{math:")) {
+            return false;
+        }
+        if (shape.escapes && (value.contains("ESCAPED_") || value.contains("SHELL_CONTINUATION_"))) {
+            return false;
+        }
+        for (Boundary boundary : node.boundaries) {
+            if (!boundary.accepts(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLookupToken(String token) {
+        if (token.contains(":") || token.contains("(") || token.contains("-::")) {
+            return false;
+        }
+        String lower = token.toLowerCase();
+        if (PLAYER_FIELD_NAMES.contains(lower)) {
+            return false;
+        }
+        for (String prefix : RESERVED_PREFIXES) {
+            if (lower.startsWith(prefix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCleanToken(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (Character.isWhitespace(c) || ",;&(){}[]\"'%:\u0000".indexOf(c) != -1 || isMarker(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isFileSpecTerminator(char c) {
+        return Character.isWhitespace(c) || c == '"' || c == '\'' || c == ',' || c == ']' || c == '}' || c == ')';
+    }
+
+    private static boolean isMarker(char c) {
+        return c >= MARKER_BASE && c < MARKER_BASE + MAX_NODES;
+    }
+
+    private enum Kind {
+        ARG(true), JOIN(true), LOOP(true), PLAYER(true), VAR(true), FALLBACK(true), FALLBACK_DYNAMIC(true),
+        PROBE(false), CONSTANT(true), TEAM(true), READ(true), WRITE(false), SUBSTITUTION(true), MATH(false);
+
+        private final boolean checked;
+        private final int bit = 1 << ordinal();
+
+        Kind(boolean checked) {
+            this.checked = checked;
+        }
+    }
+
+    private static final class Part {
+        private final String literal;
+        private final int node;
+
+        private Part(String literal, int node) {
+            this.literal = literal;
+            this.node = node;
+        }
+    }
+
+    private static final class Node {
+        private final Kind kind;
+        private final int index;
+        private final boolean uuids;
+        private final String token;
+        private final String symbolicSpec;
+        private final List<Boundary> boundaries = new ArrayList<>(0);
+        private Part[] spec;
+        /**
+         * Math nodes only: the expression compiled once with the nested values as operands
+         */
+        private MathEvaluator.Expression math;
+        private int parents;
+        private boolean echoRisk;
+
+        private Node(Kind kind, int index, boolean uuids, String token, String symbolicSpec) {
+            this.kind = kind;
+            this.index = index;
+            this.uuids = uuids;
+            this.token = token;
+            this.symbolicSpec = symbolicSpec;
+        }
+    }
+
+    /**
+     * Neighbouring text of one marker occurrence. A value is rejected if it could complete a
+     * placeholder or file/substitution/math prefix together with that text.
+     */
+    private static final class Boundary {
+        private final String left;
+        private final int leftOpen;
+        private final String right;
+        private final int rightOpen;
+        private final String[] leftNeedles;
+        private final String[] rightNeedles;
+        private final boolean emptyRisk;
+        private final boolean blocked;
+
+        private Boundary(String left, int leftOpen, String right, int rightOpen,
+                         String[] leftNeedles, String[] rightNeedles, boolean emptyRisk, boolean blocked) {
+            this.left = left;
+            this.leftOpen = leftOpen;
+            this.right = right;
+            this.rightOpen = rightOpen;
+            this.leftNeedles = leftNeedles;
+            this.rightNeedles = rightNeedles;
+            this.emptyRisk = emptyRisk;
+            this.blocked = blocked;
+        }
+
+        private boolean accepts(String value) {
+            if (blocked) {
+                return false;
+            }
+            if (value.isEmpty()) {
+                return !emptyRisk;
+            }
+            for (String needle : leftNeedles) {
+                if (value.startsWith(needle)) {
+                    return false;
+                }
+                if (needle.startsWith(value) && startsCompatible(right, rightOpen, needle.substring(value.length()))) {
+                    return false;
+                }
+            }
+            for (String needle : rightNeedles) {
+                if (value.endsWith(needle)) {
+                    return false;
+                }
+                if (needle.endsWith(value)
+                        && endsCompatible(left, leftOpen, needle.substring(0, needle.length() - value.length()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Whether {@code head} can end the text {@code left}. An open side continues into another
+     * runtime value, which never contains {@code %} unless it is an unresolved {@code %name%} echo.
+     */
+    private static boolean endsCompatible(String left, int open, String head) {
+        if (left.endsWith(head)) {
+            return true;
+        }
+        if (open == CLOSED || !head.endsWith(left)) {
+            return false;
+        }
+        return open == OPEN_ANY || head.lastIndexOf('%', head.length() - left.length() - 1) == -1;
+    }
+
+    private static boolean startsCompatible(String right, int open, String tail) {
+        if (right.startsWith(tail)) {
+            return true;
+        }
+        if (open == CLOSED || !tail.startsWith(right)) {
+            return false;
+        }
+        return open == OPEN_ANY || tail.indexOf('%', right.length()) == -1;
+    }
+
+    private static final class Shape {
+        private final boolean uncompiled;
+        private final Node[] nodes;
+        private final Part[] parts;
+        private final Part[] rawParts;
+        private final boolean openMath;
+        private final boolean openSubstitution;
+        private final boolean escapes;
+
+        private Shape(boolean uncompiled, Node[] nodes, Part[] parts, Part[] rawParts,
+                      boolean openMath, boolean openSubstitution, boolean escapes) {
+            this.uncompiled = uncompiled;
+            this.nodes = nodes;
+            this.parts = parts;
+            this.rawParts = rawParts;
+            this.openMath = openMath;
+            this.openSubstitution = openSubstitution;
+            this.escapes = escapes;
+        }
+
+        private static final Shape UNCOMPILED = new Shape(true, new Node[0], new Part[0], new Part[0], false, false, false);
+    }
+
+    private static final class UnsupportedTemplateException extends RuntimeException {
+        private UnsupportedTemplateException() {
+            super(null, null, false, false);
+        }
+    }
+
+
+    /**
+     * The string-rewrite passes, in order. Every value a pass inserts comes from {@link #insert}, so the same
+     * passes either resolve the text ({@link Rewrite}) or compile it ({@link Compiler}).
+     */
+    private abstract static class Chain {
+        private final String loopVariable;
+        private final int argCount;
+        private final boolean player;
+        private final boolean substitution;
+        String text;
+        boolean escapes;
+        boolean openSubstitution;
+        boolean openMath;
+
+        private Chain(String loopVariable, int argCount, boolean player, boolean substitution) {
+            this.loopVariable = loopVariable;
+            this.argCount = argCount;
+            this.player = player;
+            this.substitution = substitution;
+        }
+
+        /**
+         * @return the text to insert for a placeholder, run on the spot for files and command substitution
+         */
+        abstract String insert(Kind kind, int index, boolean uuids, String spec);
+
+        /**
+         * @return the text to insert for the fallback variable {@code %token%} at [start, end],
+         * or null to leave it as it is
+         */
+        abstract String fallbackVariable(String token, int start, int end);
+
+        /**
+         * Called after {@code value} from {@link #insert} was put into the text
+         */
+        void inserted(String value) {
+        }
+
+        /**
+         * Called before the file-write region [start, end) is removed from the text
+         */
+        void removing(int start, int end) {
+        }
+
+        /**
+         * Called with placeholder text whose interpretation depends on the literal characters it contains
+         */
+        void check(String placeholder) {
+        }
+
+        /**
+         * Passes before command substitution
+         */
+        final void head() {
+            if (loopVariable != null) {
+                replaceAll("%" + loopVariable + "%", Kind.LOOP, 0);
+            }
+
+            processEscapeSequences();
+            escapes = text.indexOf('\u0000') != -1;
+            replaceArguments();
+
+            if (player) {
+                for (PlayerField field : PlayerField.values()) {
+                    replaceAll(field.placeholder, Kind.PLAYER, field.ordinal());
+                }
+                replaceVariables();
+                applyVariableFallback();
+            } else {
+                replaceVariables();
+            }
+
+            replaceServerConstants();
+            replaceFileRead();
+            handleFileWrite();
+        }
+
+        /**
+         * Command substitution and math; escape sentinels are left in the text
+         */
+        final void tail() {
+            if (substitution) {
+                replaceCommandSubstitution();
+            }
+            replaceMathExpressions();
+        }
+
+        private void processEscapeSequences() {
+            text = text.replace("\\ ", "\u0000SHELL_CONTINUATION_SPACE\u0000");
+            text = text.replace("\\\n", "\u0000SHELL_CONTINUATION_NEWLINE\u0000");
+            text = text.replace("\\\\", "\u0000ESCAPED_BACKSLASH\u0000");
+            text = text.replace("\\|", "\u0000ESCAPED_PIPE\u0000");
+            text = text.replace("\\%", "\u0000ESCAPED_PERCENT\u0000");
+            text = text.replace("\\:", "\u0000ESCAPED_COLON\u0000");
+            text = text.replace("\\[", "\u0000ESCAPED_LBRACKET\u0000");
+            text = text.replace("\\]", "\u0000ESCAPED_RBRACKET\u0000");
+        }
+
+        private void replaceArguments() {
+            if (argCount > 0) {
+                replaceAll("%args%", Kind.JOIN, 0);
+            } else {
+                text = text.replace("%args%", "");
+            }
+
+            for (int i = 1; i <= Math.max(argCount + 5, 10); i++) {
+
+                String patternWithDefault = "%arg" + i + "-::";
+                int defaultStart = text.indexOf(patternWithDefault);
+                if (defaultStart != -1) {
+                    int defaultEnd = text.indexOf("%", defaultStart + patternWithDefault.length());
+                    if (defaultEnd != -1) {
+                        String fullPlaceholder = text.substring(defaultStart, defaultEnd + 1);
+                        String defaultValue = text.substring(defaultStart + patternWithDefault.length(), defaultEnd);
+                        check(fullPlaceholder);
+
+                        if (i <= argCount) {
+                            replaceAll(fullPlaceholder, Kind.JOIN, i - 1);
+                        } else {
+                            text = text.replace(fullPlaceholder, defaultValue);
+                        }
+                    }
+                }
+
+                String pattern = "%arg" + i + "-%";
+                if (text.contains(pattern)) {
+                    if (i <= argCount) {
+                        replaceAll(pattern, Kind.JOIN, i - 1);
+                    } else {
+                        text = text.replace(pattern, "");
+                    }
+                }
+            }
+
+            for (int i = 0; i < argCount; i++) {
+                replaceAll("%arg" + (i + 1) + "%", Kind.ARG, i);
+            }
+
+            while (text.contains("%arg")) {
+                int start = text.indexOf("%arg");
+                int end = text.indexOf("%", start + 1);
+                if (end == -1) break;
+
+                String placeholder = text.substring(start, end + 1);
+                check(placeholder);
+                String[] parts = placeholder.substring(1, placeholder.length() - 1).split("::");
+
+                if (parts.length >= 2) {
+                    String argPart = parts[0];
+                    String defaultValue = parts[1];
+
+                    try {
+                        int argIndex = Integer.parseInt(argPart.substring(3)) - 1;
+                        if (argIndex >= 0 && argIndex < argCount) {
+                            replaceAll(placeholder, insert(Kind.ARG, argIndex, false, null));
+                        } else {
+                            text = text.replace(placeholder, defaultValue);
+                        }
+                    } catch (NumberFormatException e) {
+                        text = text.replace(placeholder, defaultValue);
+                    }
+                } else {
+                    break;
+                }
+            }
+
+            int idx = 0;
+            while ((idx = text.indexOf("%arg", idx)) != -1) {
+                int end = text.indexOf("%", idx + 1);
+                if (end == -1) break;
+                String token = text.substring(idx + 1, end);
+                check(token);
+                if (token.startsWith("arg")) {
+                    String numPart = token.substring(3);
+                    try {
+                        int argIndex = Integer.parseInt(numPart) - 1;
+                        if (argIndex >= 0 && argIndex < argCount) {
+                            String value = insert(Kind.ARG, argIndex, false, null);
+                            replaceRegion(idx, end + 1, value);
+                            idx += value.length();
+                        } else {
+                            text = text.substring(0, idx) + text.substring(end + 1);
+                        }
+                        continue;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                idx = end + 1;
+            }
+        }
+
+        /**
+         * Player variables with global ones as fallback for players, only global ones for the console
+         */
+        private void replaceVariables() {
+            while (text.contains("%var:")) {
+                int start = text.indexOf("%var:");
+                int end = text.indexOf("%", start + 1);
+                if (end == -1) break;
+
+                String varSpec = text.substring(start + 5, end);
+                replaceAll("%var:" + varSpec + "%", insert(Kind.VAR, 0, false, varSpec));
+            }
+        }
+
+        private void applyVariableFallback() {
+            int idx = 0;
+            while ((idx = text.indexOf('%', idx)) != -1) {
+                int end = text.indexOf('%', idx + 1);
+                if (end == -1) break;
+                String token = text.substring(idx + 1, end);
+                if (token.contains(":") || token.contains("(") || token.contains("-::") || token.endsWith("-%")) {
+                    idx = end + 1;
+                    continue;
+                }
+                String lower = token.toLowerCase();
+                boolean reserved = RESERVED_PREFIXES.stream().anyMatch(lower::startsWith);
+                if (!reserved) {
+                    String value = fallbackVariable(token, idx, end);
+                    if (value != null) {
+                        replaceRegion(idx, end + 1, value);
+                        idx += value.length();
+                        continue;
+                    }
+                }
+                idx = end + 1;
+            }
+        }
+
+        private void replaceServerConstants() {
+            for (ServerConstant constant : ServerConstant.values()) {
+                replaceAll(constant.placeholder, Kind.CONSTANT, constant.ordinal());
+            }
+
+            while (text.contains("%teamplayers:")) {
+                int start = text.indexOf("%teamplayers:");
+                int end = text.indexOf("%", start + 1);
+                if (end == -1) break;
+
+                replaceRegion(start, end + 1, insert(Kind.TEAM, 0, false, text.substring(start + 13, end)));
+            }
+
+            while (text.contains("%teamplayers_uuid:")) {
+                int start = text.indexOf("%teamplayers_uuid:");
+                int end = text.indexOf("%", start + 1);
+                if (end == -1) break;
+
+                replaceRegion(start, end + 1, insert(Kind.TEAM, 0, true, text.substring(start + 18, end)));
+            }
+
+            resolveNestedTeamPlayers(false);
+            resolveNestedTeamPlayers(true);
+        }
+
+        private void resolveNestedTeamPlayers(boolean uuid) {
+            String prefix = uuid ? "%teamplayers_uuid:" : "%teamplayers:";
+            while (true) {
+                int idx = text.indexOf(prefix + "%");
+                if (idx == -1) break;
+
+                int innerStart = idx + prefix.length();
+                if (innerStart >= text.length() || text.charAt(innerStart) != '%') break;
+                int innerEnd = text.indexOf("%", innerStart + 1);
+                if (innerEnd == -1) break;
+
+                String resolvedInner = text.substring(innerStart, innerEnd + 1);
+                if (resolvedInner.startsWith("%") && resolvedInner.endsWith("%")) {
+                    resolvedInner = resolvedInner.substring(1, resolvedInner.length() - 1);
+                }
+                String playersList = insert(Kind.TEAM, 0, uuid, resolvedInner);
+
+                int patternEnd = innerEnd + 1;
+                int replaceEnd = patternEnd + 1 <= text.length() ? patternEnd + 1 : patternEnd;
+                replaceRegion(idx, replaceEnd, playersList);
+            }
+        }
+
+        private void replaceFileRead() {
+            while (text.contains(",,")) {
+                int start = text.indexOf(",,");
+                int end = findNextWhitespaceOrEnd(text, start + 2);
+
+                replaceRegion(start, end, insert(Kind.READ, 0, false, text.substring(start + 2, end)));
+            }
+        }
+
+        private void handleFileWrite() {
+            while (text.contains(";;")) {
+                int start = text.indexOf(";;");
+                int end = findNextWhitespaceOrEnd(text, start + 2);
+
+                removing(start, end);
+                insert(Kind.WRITE, 0, false, text.substring(start + 2, end));
+                text = text.substring(0, start) + text.substring(end);
+            }
+        }
+
+        /**
+         * Replace command substitution &(...) with command output
+         * Example: &(echo hello) -> hello
+         * Note: Changed from $() to &() to avoid conflicts with $ host commands
+         */
+        private void replaceCommandSubstitution() {
+            while (text.contains("&(")) {
+                int start = text.indexOf("&(");
+                int end = findMatchingParenthesis(text, start + 2);
+                if (end == -1) {
+                    openSubstitution = true;
+                    break;
+                }
+
+                replaceRegion(start, end + 1, insert(Kind.SUBSTITUTION, 0, false, text.substring(start + 2, end)));
+            }
+        }
+
+        private void replaceMathExpressions() {
+            while (text.contains("{math:")) {
+                int start = text.indexOf("{math:");
+                int end = text.indexOf("}", start);
+                if (end == -1) {
+                    openMath = true;
+                    break;
+                }
+
+                replaceRegion(start, end + 1, insert(Kind.MATH, 0, false, text.substring(start + 6, end)));
+            }
+        }
+
+        private void replaceAll(String target, Kind kind, int index) {
+            if (text.contains(target)) {
+                replaceAll(target, insert(kind, index, false, null));
+            }
+        }
+
+        private void replaceAll(String target, String value) {
+            text = text.replace(target, value);
+            inserted(value);
+        }
+
+        private void replaceRegion(int start, int end, String value) {
+            text = text.substring(0, start) + value + text.substring(end);
+            inserted(value);
+        }
+    }
+
+    private static String restoreEscapedCharacters(String text) {
+        text = text.replace("\u0000ESCAPED_PIPE\u0000", "|");
+        text = text.replace("\u0000ESCAPED_PERCENT\u0000", "%");
+        text = text.replace("\u0000ESCAPED_COLON\u0000", ":");
+        text = text.replace("\u0000ESCAPED_LBRACKET\u0000", "[");
+        text = text.replace("\u0000ESCAPED_RBRACKET\u0000", "]");
+        text = text.replace("\u0000ESCAPED_BACKSLASH\u0000", "\\");
+        text = text.replace("\u0000SHELL_CONTINUATION_SPACE\u0000", "\\ ");
+        text = text.replace("\u0000SHELL_CONTINUATION_NEWLINE\u0000", "\\\n");
+        return text;
+    }
+
+    private static int findMatchingParenthesis(String text, int start) {
+        int depth = 1;
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '(') depth++;
+            else if (c == ')') {
+                depth--;
+                if (depth == 0) return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int findNextWhitespaceOrEnd(String text, int start) {
+        for (int i = start; i < text.length(); i++) {
+            if (isFileSpecTerminator(text.charAt(i))) {
+                return i;
+            }
+        }
+        return text.length();
+    }
+
+    /**
+     * The chain with the real values inserted as each pass reaches them
+     */
+    private static final class Rewrite extends Chain {
+        private final Resolver resolver;
+        private final String[] args;
+        private final String loopItem;
+        private final Function<String, String> substitution;
+
+        private Rewrite(Resolver resolver, String[] args, String loopVariable, String loopItem) {
+            super(loopVariable, args.length, resolver.isPlayer(), resolver.isSubstitutionEnabled());
+            this.resolver = resolver;
+            this.args = args;
+            this.loopItem = loopItem;
+            this.substitution = resolver::substitute;
+        }
+
+        /**
+         * Only for {@link #finish}
+         */
+        private Rewrite(boolean substitutionEnabled, Function<String, String> substitution) {
+            super(null, 0, false, substitutionEnabled);
+            this.resolver = null;
+            this.args = new String[0];
+            this.loopItem = null;
+            this.substitution = substitution;
+        }
+
+        /**
+         * Run the passes after the file-write pass on {@code text} and restore escaped characters
+         */
+        private String finish(String text) {
+            this.text = text;
+            tail();
+            return restoreEscapedCharacters(this.text);
+        }
+
+        @Override
+        String insert(Kind kind, int index, boolean uuids, String spec) {
+            return switch (kind) {
+                case ARG -> args[index];
+                case JOIN -> String.join(" ", Arrays.copyOfRange(args, index, args.length));
+                case LOOP -> loopItem;
+                case PLAYER -> resolver.playerField(PlayerField.values()[index]);
+                case VAR -> resolver.variable(spec);
+                case CONSTANT -> resolver.serverConstant(ServerConstant.values()[index]);
+                case TEAM -> resolver.teamPlayers(spec, uuids);
+                case READ -> resolver.readFile(spec);
+                case WRITE -> {
+                    resolver.writeFile(spec);
+                    yield "";
+                }
+                case SUBSTITUTION -> substitution.apply(spec);
+                case MATH -> MathEvaluator.evaluate(spec);
+                default -> throw new IllegalStateException("Unknown segment: " + kind);
+            };
+        }
+
+        @Override
+        String fallbackVariable(String token, int start, int end) {
+            String value = resolver.fallbackVariable(token);
+            return value.isEmpty() ? null : value;
+        }
+    }
+
+    /**
+     * The chain on marker text: each inserted value becomes a node, and its neighbouring text is recorded
+     * so a value that would be read differently there is caught when rendering
+     */
+    private static final class Compiler extends Chain {
+        private final String source;
+        private final List<Node> nodes = new ArrayList<>();
+
+        private Compiler(String source, String loopVariable, int argCount, boolean player, boolean substitution) {
+            super(loopVariable, argCount, player, substitution);
+            this.source = source;
+        }
+
+        private Shape compile() {
+            try {
+                return compileOrThrow();
+            } catch (UnsupportedTemplateException e) {
+                return Shape.UNCOMPILED;
+            }
+        }
+
+        private Shape compileOrThrow() {
+            for (int i = 0; i < source.length(); i++) {
+                char c = source.charAt(i);
+                if (c == '\u0000' || isMarker(c)) {
+                    throw new UnsupportedTemplateException();
+                }
+            }
+
+            text = source;
+            head();
+            captureAllBoundaries();
+            tail();
+
+            Part[] rawParts = toParts(text);
+            Part[] parts = toParts(restoreEscapedCharacters(text));
+            Node[] compiled = nodes.toArray(new Node[0]);
+            for (Node node : compiled) {
+                if (node.symbolicSpec != null) {
+                    node.spec = toParts(node.symbolicSpec);
+                    if (node.kind == Kind.MATH) {
+                        node.math = compileMath(node.spec);
+                    }
+                    for (Part part : node.spec) {
+                        if (part.literal == null) {
+                            compiled[part.node].parents |= node.kind.bit;
+                        }
+                    }
+                }
+            }
+            return new Shape(false, compiled, parts, rawParts, openMath, openSubstitution, escapes);
+        }
+
+        @Override
+        String insert(Kind kind, int index, boolean uuids, String spec) {
+            return marker(addNode(new Node(kind, index, uuids, null, spec)));
+        }
+
+        @Override
+        String fallbackVariable(String token, int start, int end) {
+            if (firstMarker(token) != -1) {
+                Node node = addNode(new Node(Kind.FALLBACK_DYNAMIC, 0, false, null, token));
+                node.echoRisk = mayStraddle(start, end);
+                return marker(node);
+            }
+            if (isCleanToken(token) && !straddles(start, end)) {
+                return marker(addNode(new Node(Kind.FALLBACK, 0, false, token, null)));
+            }
+            // left in the text; rendering falls back if the variable turns out to have a value
+            addNode(new Node(Kind.PROBE, 0, false, token, null));
+            return null;
+        }
+
+        @Override
+        void inserted(String value) {
+            captureBoundaries(nodes.get(value.charAt(0) - MARKER_BASE));
+        }
+
+        /**
+         * Markers directly before a file-write region see the write prefix until it is removed
+         */
+        @Override
+        void removing(int start, int end) {
+            if (start > 0 && isMarker(text.charAt(start - 1))) {
+                captureBoundary(nodes.get(text.charAt(start - 1) - MARKER_BASE), start - 1);
+            }
+            if (end < text.length() && isMarker(text.charAt(end))) {
+                captureBoundary(nodes.get(text.charAt(end) - MARKER_BASE), end);
+            }
+        }
+
+        @Override
+        void check(String placeholder) {
+            if (firstMarker(placeholder) != -1) {
+                throw new UnsupportedTemplateException();
+            }
+        }
+
+        private Node addNode(Node node) {
+            if (nodes.size() >= MAX_NODES) {
+                throw new UnsupportedTemplateException();
+            }
+            nodes.add(node);
+            return node;
+        }
+
+        private String marker(Node node) {
+            return String.valueOf((char) (MARKER_BASE + nodes.indexOf(node)));
+        }
+
+        private static int firstMarker(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (isMarker(text.charAt(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Whether a server placeholder shares a {@code %} with the {@code %token%} at [start, end],
+         * so writing the token back unresolved would be read differently by the server pass
+         */
+        private boolean straddles(int start, int end) {
+            for (String pattern : STRADDLE_PATTERNS) {
+                boolean team = pattern.endsWith(":");
+                for (int s = text.indexOf(pattern); s != -1 && s <= end; s = text.indexOf(pattern, s + 1)) {
+                    int patternEnd = team ? text.indexOf('%', s + 1) : s + pattern.length() - 1;
+                    if (patternEnd == -1 || patternEnd >= start) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean mayStraddle(int start, int end) {
+            return straddles(start, end)
+                    || (start > 0 && isMarker(text.charAt(start - 1)))
+                    || (end + 1 < text.length() && isMarker(text.charAt(end + 1)));
+        }
+
+        private void captureAllBoundaries() {
+            for (int i = 0; i < text.length(); i++) {
+                if (isMarker(text.charAt(i))) {
+                    captureBoundary(nodes.get(text.charAt(i) - MARKER_BASE), i);
+                }
+            }
+        }
+
+        private void captureBoundaries(Node node) {
+            char marker = (char) (MARKER_BASE + nodes.indexOf(node));
+            for (int i = text.indexOf(marker); i != -1; i = text.indexOf(marker, i + 1)) {
+                captureBoundary(node, i);
+            }
+        }
+
+        private int openness(char c) {
+            if (!isMarker(c)) {
+                return CLOSED;
+            }
+            Kind kind = nodes.get(c - MARKER_BASE).kind;
+            return kind == Kind.FALLBACK || kind == Kind.FALLBACK_DYNAMIC ? OPEN_ANY : OPEN;
+        }
+        private void captureBoundary(Node node, int position) {
+            int leftStart = position;
+            while (leftStart > 0 && position - leftStart < CONTEXT_LENGTH && !isMarker(text.charAt(leftStart - 1))) {
+                leftStart--;
+            }
+            int leftOpen = leftStart > 0 ? openness(text.charAt(leftStart - 1)) : CLOSED;
+
+            int rightEnd = position + 1;
+            while (rightEnd < text.length() && rightEnd - position - 1 < CONTEXT_LENGTH && !isMarker(text.charAt(rightEnd))) {
+                rightEnd++;
+            }
+            int rightOpen = rightEnd < text.length() ? openness(text.charAt(rightEnd)) : CLOSED;
+
+            String left = text.substring(leftStart, position);
+            String right = text.substring(position + 1, rightEnd);
+            String[] triggers = node.kind == Kind.LOOP ? LOOP_TRIGGERS : TRIGGERS;
+
+            List<String> leftNeedles = new ArrayList<>();
+            List<String> rightNeedles = new ArrayList<>();
+            boolean emptyRisk = false;
+            for (String trigger : triggers) {
+                for (int k = 1; k < trigger.length(); k++) {
+                    String head = trigger.substring(0, k);
+                    String tail = trigger.substring(k);
+                    boolean leftMatch = endsCompatible(left, leftOpen, head);
+                    boolean rightMatch = startsCompatible(right, rightOpen, tail);
+                    if (leftMatch) {
+                        leftNeedles.add(tail);
+                    }
+                    if (rightMatch) {
+                        rightNeedles.add(head);
+                    }
+                    emptyRisk |= leftMatch && rightMatch;
+                }
+            }
+
+            boolean blocked = false;
+            if (node.kind == Kind.LOOP || node.kind == Kind.ARG || node.kind == Kind.JOIN) {
+                int percent = text.lastIndexOf('%', position);
+                blocked = percent != -1 && text.startsWith("%arg", percent);
+            }
+
+            if (!leftNeedles.isEmpty() || !rightNeedles.isEmpty() || emptyRisk || blocked) {
+                node.boundaries.add(new Boundary(left, leftOpen, right, rightOpen, leftNeedles.toArray(new String[0]),
+                        rightNeedles.toArray(new String[0]), emptyRisk, blocked));
+            }
+        }
+
+        private Part[] toParts(String symbolic) {
+            List<Part> parts = new ArrayList<>();
+            int literalStart = 0;
+            for (int i = 0; i < symbolic.length(); i++) {
+                char c = symbolic.charAt(i);
+                if (isMarker(c)) {
+                    if (i > literalStart) {
+                        parts.add(new Part(symbolic.substring(literalStart, i), -1));
+                    }
+                    parts.add(new Part(null, c - MARKER_BASE));
+                    literalStart = i + 1;
+                }
+            }
+            if (literalStart < symbolic.length() || parts.isEmpty()) {
+                parts.add(new Part(symbolic.substring(literalStart), -1));
+            }
+            return parts.toArray(new Part[0]);
+        }
+    }
+}
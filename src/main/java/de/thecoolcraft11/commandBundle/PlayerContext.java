@@ -0,0 +1,117 @@
+package de.thecoolcraft11.commandBundle;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.util.UUID;
+
+/**
+ * Per-invocation snapshot of the executing player, used for placeholder values.
+ * Every field is looked up on first use only. Name and UUID are kept for the whole invocation,
+ * position and state are dropped by {@link #invalidate()} whenever the player may have changed.
+ */
+public final class PlayerContext {
+    private final Player player;
+
+    private String name;
+    private UUID uniqueId;
+    private String uniqueIdString;
+
+    private Location location;
+    private String worldName;
+    private String health;
+    private String level;
+    private String gameMode;
+
+    public PlayerContext(Player player) {
+        this.player = player;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    public String getName() {
+        if (name == null) {
+            name = player.getName();
+        }
+        return name;
+    }
+
+    public UUID getUniqueId() {
+        if (uniqueId == null) {
+            uniqueId = player.getUniqueId();
+        }
+        return uniqueId;
+    }
+
+    public String getUniqueIdString() {
+        if (uniqueIdString == null) {
+            uniqueIdString = getUniqueId().toString();
+        }
+        return uniqueIdString;
+    }
+
+    public String getWorldName() {
+        if (worldName == null) {
+            worldName = player.getWorld().getName();
+        }
+        return worldName;
+    }
+
+    public String getHealth() {
+        if (health == null) {
+            health = String.valueOf(player.getHealth());
+        }
+        return health;
+    }
+
+    public String getLevel() {
+        if (level == null) {
+            level = String.valueOf(player.getLevel());
+        }
+        return level;
+    }
+
+    public String getGameMode() {
+        if (gameMode == null) {
+            gameMode = player.getGameMode().name();
+        }
+        return gameMode;
+    }
+
+    /**
+     * Single location lookup shared by x, y and z
+     */
+    private Location getLocation() {
+        if (location == null) {
+            location = player.getLocation();
+        }
+        return location;
+    }
+
+    public String get(PlaceholderTemplate.PlayerField field) {
+        return switch (field) {
+            case PLAYER -> getName();
+            case UUID, PLAYER_UUID -> getUniqueIdString();
+            case WORLD -> getWorldName();
+            case X -> String.valueOf(getLocation().getBlockX());
+            case Y -> String.valueOf(getLocation().getBlockY());
+            case Z -> String.valueOf(getLocation().getBlockZ());
+            case HEALTH -> getHealth();
+            case LEVEL -> getLevel();
+            case GAMEMODE -> getGameMode();
+        };
+    }
+
+    /**
+     * Forget everything that a dispatched command or a later tick can change
+     */
+    public void invalidate() {
+        location = null;
+        worldName = null;
+        health = null;
+        level = null;
+        gameMode = null;
+    }
+}
@@ -0,0 +1,140 @@
+package de.thecoolcraft11.commandBundle;
+
+import org.bukkit.Bukkit;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Moves the variables of players that left out of memory after a grace period and loads them back
+ * while the player is logging in, before any bundle can run for them.
+ */
+public final class PlayerVariableListener implements Listener {
+    private static final long LOAD_TIMEOUT_SECONDS = 10;
+    /**
+     * Minimum time a login may take between pre-login and join before its variables are evicted again
+     */
+    private static final long LOGIN_GRACE_TICKS = 60 * 20L;
+
+    private final Plugin plugin;
+    private final VariableManager variableManager;
+    private final VariableStore variableStore;
+    private final long evictDelayTicks;
+
+    /**
+     * Guards {@link #pendingEvictions} and orders evictions against loads of the same player
+     */
+    private final Object lock = new Object();
+    private final Map<UUID, BukkitTask> pendingEvictions = new HashMap<>();
+
+    public PlayerVariableListener(Plugin plugin, VariableManager variableManager, VariableStore variableStore, long evictDelaySeconds) {
+        this.plugin = plugin;
+        this.variableManager = variableManager;
+        this.variableStore = variableStore;
+        this.evictDelayTicks = Math.max(0, evictDelaySeconds) * 20L;
+    }
+
+    /**
+     * Register the listener and schedule eviction for restored players that are not online
+     */
+    public void start() {
+        Bukkit.getPluginManager().registerEvents(this, plugin);
+        for (UUID playerId : variableManager.getPlayerIds()) {
+            if (Bukkit.getPlayer(playerId) == null) {
+                scheduleEviction(playerId);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        UUID playerId = event.getUniqueId();
+
+        CompletableFuture<Void> loaded;
+        synchronized (lock) {
+            // evicts the variables again if the login is refused later on and the player never joins
+            BukkitTask pending = scheduleEviction(playerId, Math.max(evictDelayTicks, LOGIN_GRACE_TICKS));
+            if (pending != null) {
+                // rejoined within the grace period, the variables are still in memory
+                return;
+            }
+            loaded = variableStore.loadPlayer(playerId).thenAccept(vars -> {
+                for (Map.Entry<String, String> entry : vars.entrySet()) {
+                    variableManager.restorePlayer(playerId, entry.getKey(), entry.getValue());
+                }
+            });
+        }
+
+        try {
+            loaded.get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            plugin.getLogger().warning("Loading variables of " + event.getName() + " is taking long, they will be available later");
+        } catch (ExecutionException e) {
+            plugin.getLogger().warning("Failed to load variables of " + event.getName() + ": " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        synchronized (lock) {
+            BukkitTask pending = pendingEvictions.remove(event.getPlayer().getUniqueId());
+            if (pending != null) {
+                pending.cancel();
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        scheduleEviction(event.getPlayer().getUniqueId());
+    }
+
+    private void scheduleEviction(UUID playerId) {
+        scheduleEviction(playerId, evictDelayTicks);
+    }
+
+    /**
+     * Replace the pending eviction of the player
+     *
+     * @return the eviction that was pending before, already cancelled, or null
+     */
+    private BukkitTask scheduleEviction(UUID playerId, long delayTicks) {
+        synchronized (lock) {
+            BukkitTask[] task = new BukkitTask[1];
+            task[0] = Bukkit.getScheduler().runTaskLater(plugin, () -> evict(playerId, task[0]), delayTicks);
+            BukkitTask previous = pendingEvictions.put(playerId, task[0]);
+            if (previous != null) {
+                previous.cancel();
+            }
+            return previous;
+        }
+    }
+
+    private void evict(UUID playerId, BukkitTask task) {
+        synchronized (lock) {
+            // stale if a login or join replaced the eviction while this task was already starting
+            if (!pendingEvictions.remove(playerId, task) || Bukkit.getPlayer(playerId) != null) {
+                return;
+            }
+            variableManager.evictPlayer(playerId);
+        }
+    }
+}
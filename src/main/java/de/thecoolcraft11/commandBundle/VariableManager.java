@@ -2,45 +2,292 @@ package de.thecoolcraft11.commandBundle;
 
 import org.bukkit.Location;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
- 
+/**
+ * Global and per-player variables. Safe to use from the main thread and from webhook or host command threads:
+ * reads never lock and writes only lock the affected hash bin, so single operations below are atomic.
+ * Writes to a player's variables also hold that player's entry, so they cannot land in a map that
+ * {@link #clearPlayer} or {@link #evictPlayer} is detaching.
+ */
 public class VariableManager {
-    private final Map<String, String> globalVariables = new HashMap<>();
-    private final Map<UUID, Map<String, String>> playerVariables = new HashMap<>();
+    private final Map<String, Value> globalVariables = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<String, Value>> playerVariables = new ConcurrentHashMap<>();
+    private volatile Journal journal = Journal.NONE;
 
+    /**
+     * Receives every change, in the order it was applied to each variable
+     */
+    public interface Journal {
+        Journal NONE = new Journal() {
+            @Override
+            public void setGlobal(String key, String value) {
+            }
+
+            @Override
+            public void setPlayer(UUID playerId, String key, String value) {
+            }
+
+            @Override
+            public void clearPlayer(UUID playerId) {
+            }
+
+            @Override
+            public void clearAll() {
+            }
+
+            @Override
+            public void evictPlayer(UUID playerId) {
+            }
+        };
+
+        /**
+         * @param value the new value, or null if the variable was removed
+         */
+        void setGlobal(String key, String value);
+
+        void setPlayer(UUID playerId, String key, String value);
+
+        void clearPlayer(UUID playerId);
+
+        void clearAll();
+
+        /**
+         * The player's variables were dropped from memory and are kept by the journal only
+         */
+        void evictPlayer(UUID playerId);
+    }
+
+    public void setJournal(Journal journal) {
+        this.journal = journal == null ? Journal.NONE : journal;
+    }
+
+    /**
+     * Set a global variable without passing it to the journal, used when loading stored variables
+     */
+    public void restoreGlobal(String key, String value) {
+        globalVariables.put(key.toLowerCase(), new Value(value));
+    }
+
+    /**
+     * Like {@link #restoreGlobal}, but keeps a value that was set in the meantime
+     */
+    public void restorePlayer(UUID playerId, String key, String value) {
+        withPlayer(playerId, vars -> vars.putIfAbsent(key.toLowerCase(), new Value(value)));
+    }
+
+    /**
+     * Drop a player's variables from memory; unlike {@link #clearPlayer} the journal keeps them
+     */
+    public void evictPlayer(UUID playerId) {
+        playerVariables.compute(playerId, (k, vars) -> {
+            journal.evictPlayer(playerId);
+            return null;
+        });
+    }
+
+    public Set<UUID> getPlayerIds() {
+        return Set.copyOf(playerVariables.keySet());
+    }
 
     public void setGlobal(String key, String value) {
-        globalVariables.put(key.toLowerCase(), value);
+        put(null, globalVariables, key, value);
     }
 
 
     public String getGlobal(String key) {
-        return globalVariables.getOrDefault(key.toLowerCase(), "");
+        return text(globalVariables.get(key.toLowerCase()));
+    }
+
+    /**
+     * Parsed form of a global variable for path lookups, null if the variable is unset or empty
+     */
+    public JsonDocument getGlobalJson(String key) {
+        return json(globalVariables.get(key.toLowerCase()));
+    }
+
+    /**
+     * Set a global variable and return its previous value ("" if unset)
+     */
+    public String getAndSetGlobal(String key, String value) {
+        return getAndSet(null, globalVariables, key, value);
+    }
+
+    /**
+     * Set a global variable only if its current value ("" if unset) equals {@code expected}
+     */
+    public boolean compareAndSetGlobal(String key, String expected, String value) {
+        return compareAndSet(null, globalVariables, key, expected, value);
+    }
+
+    /**
+     * Add {@code delta} to a numeric global variable (unset counts as 0) and return the new value
+     *
+     * @throws NumberFormatException if the current value is not a number; the variable is left unchanged
+     */
+    public String incrementGlobal(String key, double delta) {
+        return increment(null, globalVariables, key, delta);
     }
 
     public void setPlayer(UUID playerId, String key, String value) {
-        playerVariables.computeIfAbsent(playerId, k -> new HashMap<>())
-                .put(key.toLowerCase(), value);
+        withPlayer(playerId, vars -> {
+            put(playerId, vars, key, value);
+            return null;
+        });
     }
 
     public String getPlayer(UUID playerId, String key) {
-        Map<String, String> vars = playerVariables.get(playerId);
-        if (vars == null) {
-            return "";
-        }
-        return vars.getOrDefault(key.toLowerCase(), "");
+        Map<String, Value> vars = playerVariables.get(playerId);
+        return vars == null ? "" : text(vars.get(key.toLowerCase()));
+    }
+
+    public JsonDocument getPlayerJson(UUID playerId, String key) {
+        Map<String, Value> vars = playerVariables.get(playerId);
+        return vars == null ? null : json(vars.get(key.toLowerCase()));
+    }
+
+    public String getAndSetPlayer(UUID playerId, String key, String value) {
+        return withPlayer(playerId, vars -> getAndSet(playerId, vars, key, value));
+    }
+
+    public boolean compareAndSetPlayer(UUID playerId, String key, String expected, String value) {
+        return withPlayer(playerId, vars -> compareAndSet(playerId, vars, key, expected, value));
+    }
+
+    public String incrementPlayer(UUID playerId, String key, double delta) {
+        return withPlayer(playerId, vars -> increment(playerId, vars, key, delta));
     }
 
     public void clearPlayer(UUID playerId) {
-        playerVariables.remove(playerId);
+        playerVariables.compute(playerId, (k, vars) -> {
+            journal.clearPlayer(playerId);
+            return null;
+        });
     }
 
+    /**
+     * The journal is cleared first, then each variable and player is removed through the same locks as writes.
+     * A write that races with this is either removed along with the rest or kept in both memory and the journal.
+     */
     public void clearAll() {
-        globalVariables.clear();
-        playerVariables.clear();
+        journal.clearAll();
+        for (String key : globalVariables.keySet()) {
+            put(null, globalVariables, key, null);
+        }
+        for (UUID playerId : playerVariables.keySet()) {
+            clearPlayer(playerId);
+        }
+    }
+
+    /**
+     * Run {@code action} on the player's variables while holding the player's entry, creating it if needed
+     */
+    private <T> T withPlayer(UUID playerId, Function<Map<String, Value>, T> action) {
+        Object[] result = {null};
+        playerVariables.compute(playerId, (k, vars) -> {
+            if (vars == null) {
+                vars = new ConcurrentHashMap<>();
+            }
+            result[0] = action.apply(vars);
+            return vars;
+        });
+        @SuppressWarnings("unchecked")
+        T value = (T) result[0];
+        return value;
+    }
+
+    /**
+     * A null value removes the variable, since the concurrent maps cannot hold null.
+     * Every write goes through {@code compute} so the journal sees changes to a variable in the same order as the map.
+     */
+    private void put(UUID owner, Map<String, Value> vars, String key, String value) {
+        vars.compute(key.toLowerCase(), (k, current) -> record(owner, k, value));
+    }
+
+    private String getAndSet(UUID owner, Map<String, Value> vars, String key, String value) {
+        String[] previous = {""};
+        vars.compute(key.toLowerCase(), (k, current) -> {
+            previous[0] = text(current);
+            return record(owner, k, value);
+        });
+        return previous[0];
+    }
+
+    private boolean compareAndSet(UUID owner, Map<String, Value> vars, String key, String expected, String value) {
+        boolean[] swapped = {false};
+        vars.compute(key.toLowerCase(), (k, current) -> {
+            if (!Objects.equals(text(current), expected)) {
+                return current;
+            }
+            swapped[0] = true;
+            return record(owner, k, value);
+        });
+        return swapped[0];
+    }
+
+    private String increment(UUID owner, Map<String, Value> vars, String key, double delta) {
+        return vars.compute(key.toLowerCase(), (k, current) -> record(owner, k, addNumber(text(current), delta))).text;
+    }
+
+    private Value record(UUID owner, String key, String value) {
+        if (owner == null) {
+            journal.setGlobal(key, value);
+        } else {
+            journal.setPlayer(owner, key, value);
+        }
+        return value == null ? null : new Value(value);
+    }
+
+    private static String text(Value value) {
+        return value == null ? "" : value.text;
+    }
+
+    private static JsonDocument json(Value value) {
+        return value == null || value.text.isEmpty() ? null : value.json();
+    }
+
+    /**
+     * A stored variable. Its JSON form is parsed on the first path lookup and then kept with the value,
+     * so every later lookup into the same value reuses it.
+     */
+    private static final class Value {
+        private final String text;
+        private volatile JsonDocument json;
+
+        private Value(String text) {
+            this.text = text;
+        }
+
+        private JsonDocument json() {
+            JsonDocument document = json;
+            if (document == null) {
+                document = JsonDocument.parse(text);
+                json = document;
+            }
+            return document;
+        }
+    }
+
+    /**
+     * Whole numbers stay whole ("5" + 1 = "6"), anything else is added as a double
+     */
+    private static String addNumber(String current, double delta) {
+        String trimmed = current.trim();
+        if (trimmed.isEmpty()) {
+            trimmed = "0";
+        }
+        if (delta == Math.rint(delta) && !Double.isInfinite(delta)) {
+            try {
+                return String.valueOf(Math.addExact(Long.parseLong(trimmed), (long) delta));
+            } catch (NumberFormatException | ArithmeticException ignored) {
+            }
+        }
+        return String.valueOf(Double.parseDouble(trimmed) + delta);
     }
 
     public void storeLocation(UUID playerId, String key, Location location) {
@@ -89,7 +336,7 @@ public class VariableManager {
     }
 
     public boolean hasPlayer(UUID playerId, String key) {
-        Map<String, String> vars = playerVariables.get(playerId);
+        Map<String, Value> vars = playerVariables.get(playerId);
         return vars != null && vars.containsKey(key.toLowerCase());
     }
 }
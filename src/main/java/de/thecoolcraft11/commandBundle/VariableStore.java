@@ -0,0 +1,519 @@
+package de.thecoolcraft11.commandBundle;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Disk persistence for {@link VariableManager}.
+ * <p>
+ * Every change is appended to a write-ahead log ({@code variables.log}) by a background thread, which also keeps
+ * its own copy of the variables. From that copy it periodically writes a compacted {@code snapshot.dat} and starts
+ * a new log, so the snapshot always matches exactly the log records it replaces. On startup the snapshot is
+ * loaded and the log replayed on top of it; a torn record at the end of the log (crash mid-write) is ignored.
+ * <p>
+ * Variables of players that left are moved out of memory into one file per player ({@code players/<uuid>.dat})
+ * by {@link #evictPlayer(UUID)} and read back by {@link #loadPlayer(UUID)}, or on the next change to them.
+ * Only players whose variables are in memory ("resident") are part of the snapshot.
+ */
+public final class VariableStore implements VariableManager.Journal {
+    public enum FsyncPolicy {
+        /**
+         * fsync after every batch of writes
+         */
+        ALWAYS,
+        /**
+         * fsync whenever the log is flushed
+         */
+        INTERVAL,
+        /**
+         * never fsync the log, leave it to the OS (snapshots are still synced)
+         */
+        NEVER
+    }
+
+    private static final int MAGIC = 0x43425653;
+    private static final int VERSION = 1;
+
+    private static final byte WAKE_UP = 0;
+    private static final byte SET_GLOBAL = 1;
+    private static final byte REMOVE_GLOBAL = 2;
+    private static final byte SET_PLAYER = 3;
+    private static final byte REMOVE_PLAYER = 4;
+    private static final byte CLEAR_PLAYER = 5;
+    private static final byte CLEAR_ALL = 6;
+    private static final byte EVICT_PLAYER = 7;
+    private static final byte LOAD_PLAYER = 8;
+
+    private final File logFile;
+    private final File snapshotFile;
+    private final File playersDirectory;
+    private final long flushIntervalMillis;
+    private final FsyncPolicy fsyncPolicy;
+    private final long snapshotIntervalMillis;
+    private final Logger logger;
+
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private final Map<String, String> globals = new HashMap<>();
+    private final Map<UUID, Map<String, String>> players = new HashMap<>();
+    private Thread writer;
+    private volatile boolean closing;
+
+    private FileOutputStream logStream;
+    private DataOutputStream log;
+    private long pendingChanges;
+
+    public VariableStore(File directory, long flushIntervalMillis, FsyncPolicy fsyncPolicy, long snapshotIntervalSeconds, Logger logger) {
+        this.logFile = new File(directory, "variables.log");
+        this.snapshotFile = new File(directory, "snapshot.dat");
+        this.playersDirectory = new File(directory, "players");
+        this.flushIntervalMillis = Math.max(0, flushIntervalMillis);
+        this.fsyncPolicy = fsyncPolicy;
+        this.snapshotIntervalMillis = Math.max(1, snapshotIntervalSeconds) * 1000;
+        this.logger = logger;
+    }
+
+    /**
+     * Restore the persisted variables into {@code manager}, then start logging its changes.
+     * Must be called before the manager is used.
+     */
+    public void open(VariableManager manager) throws IOException {
+        if (!playersDirectory.exists() && !playersDirectory.mkdirs()) {
+            throw new IOException("Could not create " + playersDirectory);
+        }
+
+        if (snapshotFile.exists()) {
+            // snapshot records never merge player files: a player in the snapshot was resident when it was taken
+            readFile(snapshotFile, record -> {
+                if (record.op == SET_PLAYER) {
+                    players.computeIfAbsent(record.playerId, k -> new HashMap<>()).put(record.key, record.value);
+                } else {
+                    apply(record);
+                }
+            });
+        }
+        if (logFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+                pendingChanges = readRecords(in, this::apply);
+            }
+        }
+
+        for (Map.Entry<String, String> entry : globals.entrySet()) {
+            manager.restoreGlobal(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<UUID, Map<String, String>> player : players.entrySet()) {
+            for (Map.Entry<String, String> entry : player.getValue().entrySet()) {
+                manager.restorePlayer(player.getKey(), entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (pendingChanges > 0) {
+            writeSnapshot();
+        }
+        openLog();
+
+        manager.setJournal(this);
+        writer = new Thread(this::run, "CommandBundle-VariableStore");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Write everything still queued, store a final snapshot and stop the background thread
+     */
+    public void close() {
+        closing = true;
+        if (writer == null) {
+            return;
+        }
+        queue.add(new Record(WAKE_UP, null, null, null));
+        try {
+            writer.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void setGlobal(String key, String value) {
+        queue.add(new Record(value == null ? REMOVE_GLOBAL : SET_GLOBAL, null, key, value));
+    }
+
+    @Override
+    public void setPlayer(UUID playerId, String key, String value) {
+        queue.add(new Record(value == null ? REMOVE_PLAYER : SET_PLAYER, playerId, key, value));
+    }
+
+    @Override
+    public void clearPlayer(UUID playerId) {
+        queue.add(new Record(CLEAR_PLAYER, playerId, null, null));
+    }
+
+    @Override
+    public void clearAll() {
+        queue.add(new Record(CLEAR_ALL, null, null, null));
+    }
+
+    @Override
+    public void evictPlayer(UUID playerId) {
+        queue.add(new Record(EVICT_PLAYER, playerId, null, null));
+    }
+
+    /**
+     * Variables of a player, read back from disk if they were evicted.
+     * Completes on the writer thread, after every change queued before this call.
+     */
+    public CompletableFuture<Map<String, String>> loadPlayer(UUID playerId) {
+        if (closing) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+        CompletableFuture<Map<String, String>> result = new CompletableFuture<>();
+        queue.add(new Record(LOAD_PLAYER, playerId, null, null, result));
+        return result;
+    }
+
+    private void run() {
+        long nextFlush = System.currentTimeMillis() + flushIntervalMillis;
+        long nextSnapshot = System.currentTimeMillis() + snapshotIntervalMillis;
+        boolean dirty = false;
+        boolean failing = false;
+
+        while (true) {
+            try {
+                long wait = Math.max(0, (dirty ? Math.min(nextFlush, nextSnapshot) : nextSnapshot) - System.currentTimeMillis());
+                Record record = closing ? queue.poll() : queue.poll(wait, TimeUnit.MILLISECONDS);
+                while (record != null) {
+                    if (handle(record)) {
+                        pendingChanges++;
+                        dirty = true;
+                        if (log == null) {
+                            // the log was lost with the last error, start over from a snapshot
+                            writeSnapshot();
+                            openLog();
+                        }
+                        writeRecord(log, record);
+                    }
+                    record = queue.poll();
+                }
+
+                long now = System.currentTimeMillis();
+                if (dirty && (fsyncPolicy == FsyncPolicy.ALWAYS || flushIntervalMillis == 0 || now >= nextFlush || closing)) {
+                    dirty = false;
+                    nextFlush = now + flushIntervalMillis;
+                    log.flush();
+                    if (fsyncPolicy != FsyncPolicy.NEVER) {
+                        logStream.getChannel().force(false);
+                    }
+                }
+                if (closing || now >= nextSnapshot) {
+                    nextSnapshot = now + snapshotIntervalMillis;
+                    if (pendingChanges > 0) {
+                        closeLog();
+                        writeSnapshot();
+                        openLog();
+                    }
+                }
+                failing = false;
+                if (closing && queue.isEmpty()) {
+                    closeLog();
+                    return;
+                }
+            } catch (InterruptedException e) {
+                closing = true;
+            } catch (IOException e) {
+                if (!failing) {
+                    logger.severe("Failed to persist variables, retrying with the next change: " + e.getMessage());
+                    failing = true;
+                }
+                dirty = false;
+                try {
+                    closeLog();
+                } catch (IOException ignored) {
+                }
+                if (closing) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a queued record, including its effect on the player files
+     *
+     * @return whether the record changed the variables and belongs in the log
+     */
+    private boolean handle(Record record) {
+        switch (record.op) {
+            case WAKE_UP -> {
+                return false;
+            }
+            case LOAD_PLAYER -> {
+                record.reply.complete(new HashMap<>(resident(record.playerId)));
+                return false;
+            }
+            case EVICT_PLAYER -> {
+                Map<String, String> vars = players.get(record.playerId);
+                try {
+                    if (vars != null) {
+                        writePlayerFile(record.playerId, vars);
+                    }
+                } catch (IOException e) {
+                    logger.warning("Could not write variables of " + record.playerId + ", keeping them in memory: " + e.getMessage());
+                    return false;
+                }
+            }
+            case CLEAR_PLAYER -> deletePlayerFile(record.playerId);
+            case CLEAR_ALL -> {
+                File[] files = playersDirectory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        deletePlayerFile(file);
+                    }
+                }
+            }
+            default -> {
+            }
+        }
+        apply(record);
+        return true;
+    }
+
+    private void closeLog() throws IOException {
+        if (log != null) {
+            DataOutputStream current = log;
+            log = null;
+            current.close();
+        }
+    }
+
+    private void openLog() throws IOException {
+        logStream = new FileOutputStream(logFile);
+        log = new DataOutputStream(new BufferedOutputStream(logStream, 1 << 16));
+    }
+
+    /**
+     * Replace the snapshot with the current state; the log is started over afterwards
+     */
+    private void writeSnapshot() throws IOException {
+        // a resident player without variables has nothing in the snapshot, so an older file must not come back
+        players.entrySet().removeIf(player -> {
+            if (player.getValue().isEmpty()) {
+                deletePlayerFile(player.getKey());
+                return true;
+            }
+            return false;
+        });
+
+        writeAtomically(snapshotFile, out -> {
+            for (Map.Entry<String, String> entry : globals.entrySet()) {
+                writeRecord(out, new Record(SET_GLOBAL, null, entry.getKey(), entry.getValue()));
+            }
+            for (Map.Entry<UUID, Map<String, String>> player : players.entrySet()) {
+                writePlayer(out, player.getKey(), player.getValue());
+            }
+        });
+        pendingChanges = 0;
+    }
+
+    private File playerFile(UUID playerId) {
+        return new File(playersDirectory, playerId + ".dat");
+    }
+
+    private void writePlayerFile(UUID playerId, Map<String, String> vars) throws IOException {
+        if (vars.isEmpty()) {
+            Files.deleteIfExists(playerFile(playerId).toPath());
+            return;
+        }
+        writeAtomically(playerFile(playerId), out -> writePlayer(out, playerId, vars));
+    }
+
+    private void deletePlayerFile(UUID playerId) {
+        deletePlayerFile(playerFile(playerId));
+    }
+
+    private void deletePlayerFile(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            logger.warning("Could not delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Variables of a player, read from their file if they are not resident yet
+     */
+    private Map<String, String> resident(UUID playerId) {
+        Map<String, String> vars = players.get(playerId);
+        if (vars == null) {
+            Map<String, String> loaded = new HashMap<>();
+            File file = playerFile(playerId);
+            if (file.exists()) {
+                try {
+                    readFile(file, record -> loaded.put(record.key, record.value));
+                } catch (IOException e) {
+                    logger.warning("Could not read variables of " + playerId + ": " + e.getMessage());
+                }
+            }
+            vars = loaded;
+            players.put(playerId, vars);
+        }
+        return vars;
+    }
+
+    private static void writePlayer(DataOutputStream out, UUID playerId, Map<String, String> vars) throws IOException {
+        for (Map.Entry<String, String> entry : vars.entrySet()) {
+            writeRecord(out, new Record(SET_PLAYER, playerId, entry.getKey(), entry.getValue()));
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Write a file with header through a temporary file, so a crash leaves either the old or the new version
+     */
+    private static void writeAtomically(File target, RecordWriter writer) throws IOException {
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (FileOutputStream fileStream = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writer.write(out);
+            out.flush();
+            fileStream.getChannel().force(true);
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void apply(Record record) {
+        switch (record.op) {
+            case SET_GLOBAL -> globals.put(record.key, record.value);
+            case REMOVE_GLOBAL -> globals.remove(record.key);
+            case SET_PLAYER -> resident(record.playerId).put(record.key, record.value);
+            case REMOVE_PLAYER -> resident(record.playerId).remove(record.key);
+            case CLEAR_PLAYER, EVICT_PLAYER -> players.remove(record.playerId);
+            case CLEAR_ALL -> {
+                globals.clear();
+                players.clear();
+            }
+            default -> throw new IllegalStateException("Unknown record type " + record.op);
+        }
+    }
+
+    private long readFile(File file, Consumer<Record> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a variable file: " + file);
+            }
+            return readRecords(in, consumer);
+        }
+    }
+
+    /**
+     * Pass records to {@code consumer} until the end of the stream or the first damaged record
+     */
+    private long readRecords(DataInputStream in, Consumer<Record> consumer) throws IOException {
+        long count = 0;
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return count;
+            }
+            try {
+                if (length <= 0 || length > 64 << 20) {
+                    throw new IOException("bad record length " + length);
+                }
+                long checksum = in.readInt() & 0xFFFFFFFFL;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if (crc.getValue() != checksum) {
+                    throw new IOException("checksum mismatch");
+                }
+                consumer.accept(decode(payload));
+                count++;
+            } catch (IOException e) {
+                logger.warning("Ignoring damaged variable record after " + count + " records: "
+                        + (e instanceof EOFException ? "incomplete record" : e.getMessage()));
+                return count;
+            }
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(record.op);
+        if (record.playerId != null) {
+            payload.writeLong(record.playerId.getMostSignificantBits());
+            payload.writeLong(record.playerId.getLeastSignificantBits());
+        }
+        if (record.key != null) {
+            writeString(payload, record.key);
+        }
+        if (record.value != null) {
+            writeString(payload, record.value);
+        }
+
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        out.writeInt(data.length);
+        out.writeInt((int) crc.getValue());
+        out.write(data);
+    }
+
+    private static Record decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte op = in.readByte();
+        UUID playerId = null;
+        String key = null;
+        String value = null;
+        if (op == SET_PLAYER || op == REMOVE_PLAYER || op == CLEAR_PLAYER || op == EVICT_PLAYER) {
+            playerId = new UUID(in.readLong(), in.readLong());
+        }
+        if (op == SET_GLOBAL || op == REMOVE_GLOBAL || op == SET_PLAYER || op == REMOVE_PLAYER) {
+            key = readString(in);
+        }
+        if (op == SET_GLOBAL || op == SET_PLAYER) {
+            value = readString(in);
+        }
+        if (op < SET_GLOBAL || op > EVICT_PLAYER) {
+            throw new IOException("unknown record type " + op);
+        }
+        return new Record(op, playerId, key, value);
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private record Record(byte op, UUID playerId, String key, String value, CompletableFuture<Map<String, String>> reply) {
+        private Record(byte op, UUID playerId, String key, String value) {
+            this(op, playerId, key, value, null);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package de.thecoolcraft11.commandBundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Shared HTTP client for webhook actions.
+ * Connections are kept alive and reused (HTTP/2 where the server supports it). At most
+ * {@code maxPerHost} requests run against one host at a time, further ones wait in a queue
+ * that is shared by all hosts and bounded by {@code maxQueued}. Requests that do not fit are rejected.
+ * Response bodies larger than {@code maxBodyBytes} fail the request.
+ */
+public final class WebhookClient {
+    private static final long REJECT_WARNING_INTERVAL_MILLIS = 5000;
+
+    private final Logger logger;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final int maxPerHost;
+    private final int maxQueued;
+    private final long maxBodyBytes;
+    private final Map<String, HostQueue> hosts = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong lastRejectWarning = new AtomicLong();
+
+    public WebhookClient(Logger logger, Duration connectTimeout, Duration requestTimeout, int maxPerHost, int maxQueued, long maxBodyBytes) {
+        this.logger = logger;
+        this.requestTimeout = requestTimeout;
+        this.maxPerHost = Math.max(1, maxPerHost);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxBodyBytes = Math.max(0, maxBodyBytes);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * Response of a webhook call. The body has its line breaks removed.
+     * When JSON paths were requested, {@code fields} holds the values found and {@code body} is empty.
+     */
+    public record Response(int statusCode, String body, Map<String, String> fields) {
+        public boolean isSuccess() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+    }
+
+    /**
+     * Send a POST request. Completes exceptionally with {@link RejectedExecutionException}
+     * if the queue is full, or with the I/O error / timeout of the request.
+     */
+    public CompletableFuture<Response> post(String url, String body, Map<String, String> headers) {
+        return post(url, body, headers, List.of());
+    }
+
+    /**
+     * Send a POST request and keep only the given JSON paths of a successful response,
+     * read with {@link JsonFieldExtractor} while it arrives. An empty collection keeps the whole body.
+     */
+    public CompletableFuture<Response> post(String url, String body, Map<String, String> headers, Collection<String> jsonPaths) {
+        HttpRequest request;
+        try {
+            request = buildRequest(url, body, headers);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        String host = request.uri().getHost() != null ? request.uri().getHost().toLowerCase() : "";
+        HostQueue hostQueue = hosts.computeIfAbsent(host, k -> new HostQueue());
+        Pending pending = new Pending(request, jsonPaths);
+
+        synchronized (hostQueue) {
+            if (hostQueue.active < maxPerHost) {
+                hostQueue.active++;
+            } else if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                reportRejected(host);
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Webhook queue is full"));
+            } else {
+                hostQueue.waiting.add(pending);
+                return pending.result;
+            }
+        }
+        send(hostQueue, pending);
+        return pending.result;
+    }
+
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public void shutdown() {
+        client.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private HttpRequest buildRequest(String url, String body, Map<String, String> headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .POST(body.isEmpty() ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body));
+
+        if (!headers.containsKey("Content-Type")) {
+            builder.header("Content-Type", "application/json");
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            try {
+                builder.header(header.getKey(), header.getValue());
+            } catch (IllegalArgumentException e) {
+                logger.warning("Skipping webhook header '" + header.getKey() + "': " + e.getMessage());
+            }
+        }
+        return builder.build();
+    }
+
+    private void send(HostQueue hostQueue, Pending pending) {
+        CompletableFuture<Response> future;
+        try {
+            future = client.sendAsync(pending.request, HttpResponse.BodyHandlers.ofInputStream())
+                    .thenApplyAsync(response -> readResponse(response, pending.jsonPaths), executor);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((response, error) -> {
+            Pending next;
+            synchronized (hostQueue) {
+                next = hostQueue.waiting.poll();
+                if (next == null) {
+                    hostQueue.active--;
+                } else {
+                    queued.decrementAndGet();
+                }
+            }
+            if (next != null) {
+                send(hostQueue, next);
+            }
+
+            if (error != null) {
+                pending.result.completeExceptionally(error);
+            } else {
+                pending.result.complete(response);
+            }
+        });
+    }
+
+    /**
+     * Read the body on a virtual thread. The request timeout covers the body too:
+     * the stream is closed when it runs out, which ends a blocked read.
+     */
+    private Response readResponse(HttpResponse<InputStream> response, Collection<String> jsonPaths) {
+        int status = response.statusCode();
+        boolean success = status >= 200 && status < 300;
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        InputStream stream = response.body();
+        CompletableFuture.delayedExecutor(requestTimeout.toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+            if (done.complete(null)) {
+                closeQuietly(stream);
+            }
+        });
+
+        try (InputStream body = new LimitedInputStream(stream, maxBodyBytes)) {
+            if (success && !jsonPaths.isEmpty()) {
+                Reader reader = new InputStreamReader(body, charsetOf(response));
+                return new Response(status, "", JsonFieldExtractor.extract(reader, jsonPaths));
+            }
+            String text = new String(body.readAllBytes(), charsetOf(response));
+            return new Response(status, text.replace("\r", "").replace("\n", ""), null);
+        } catch (IOException e) {
+            if (!done.complete(null)) {
+                throw new CompletionException(new IOException("Response took longer than " + requestTimeout.toSeconds() + "s"));
+            }
+            throw new CompletionException(e);
+        } finally {
+            done.complete(null);
+        }
+    }
+
+    private static Charset charsetOf(HttpResponse<?> response) {
+        String contentType = response.headers().firstValue("Content-Type").orElse("");
+        int index = contentType.toLowerCase().indexOf("charset=");
+        if (index != -1) {
+            String name = contentType.substring(index + 8).split(";", 2)[0].trim().replace("\"", "");
+            try {
+                return Charset.forName(name);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void reportRejected(String host) {
+        long total = rejected.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long last = lastRejectWarning.get();
+        if (now - last >= REJECT_WARNING_INTERVAL_MILLIS && lastRejectWarning.compareAndSet(last, now)) {
+            logger.warning("Webhook queue is full (" + maxQueued + " waiting), rejected request to " + host
+                    + " (" + total + " rejected in total)");
+        }
+    }
+
+    private static final class HostQueue {
+        private final Queue<Pending> waiting = new ArrayDeque<>();
+        private int active;
+    }
+
+    private static final class Pending {
+        private final HttpRequest request;
+        private final Collection<String> jsonPaths;
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+
+        private Pending(HttpRequest request, Collection<String> jsonPaths) {
+            this.request = request;
+            this.jsonPaths = jsonPaths;
+        }
+    }
+
+    /**
+     * Fails once more than {@code limit} bytes were read, so a huge response is never fully downloaded
+     */
+    private static final class LimitedInputStream extends InputStream {
+        private final InputStream in;
+        private final long limit;
+        private long remaining;
+
+        private LimitedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.limit = limit;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining + 1));
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int bytes) throws IOException {
+            remaining -= bytes;
+            if (remaining < 0) {
+                throw new IOException("Response is larger than " + limit + " bytes");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package de.thecoolcraft11.commandBundle;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class WebhookData {
     private final String url;
@@ -10,9 +14,22 @@ public class WebhookData {
     private String storeVariable = null;
     private boolean silent = false;
     private boolean dynamicStoreName = false;
+    private final PlaceholderTemplate urlTemplate;
+    private final Map<String, PlaceholderTemplate> headerTemplates = new HashMap<>();
+    private PlaceholderTemplate bodyTemplate = PlaceholderTemplate.of("");
+    private PlaceholderTemplate storeVariableTemplate = null;
+    private final List<ResponseField> responseFields = new ArrayList<>();
+    private final Set<String> responsePaths = new LinkedHashSet<>();
+
+    /**
+     * A JSON path of the response stored as {@code <storeVariable>_<name>}
+     */
+    public record ResponseField(String name, String path) {
+    }
 
     public WebhookData(String url) {
         this.url = url;
+        this.urlTemplate = PlaceholderTemplate.of(url);
     }
 
     public static WebhookData parse(String rawWebhookData) {
@@ -21,6 +38,7 @@ public class WebhookData {
         String storeVariable = null;
         boolean silent = false;
         boolean dynamicStoreName = false;
+        String fieldsPart = null;
 
         int varMarker = rawWebhookData.indexOf(">>");
         if (varMarker != -1) {
@@ -37,6 +55,12 @@ public class WebhookData {
                 varPart = varPart.substring(1).trim();
             }
 
+            int fieldsStart = varPart.indexOf('{');
+            if (fieldsStart != -1 && varPart.endsWith("}")) {
+                fieldsPart = varPart.substring(fieldsStart + 1, varPart.length() - 1);
+                varPart = varPart.substring(0, fieldsStart).trim();
+            }
+
             if (!varPart.isEmpty()) {
                 storeVariable = varPart;
                 if (storeVariable.contains("%")) {
@@ -57,8 +81,14 @@ public class WebhookData {
 
         WebhookData webhook = new WebhookData(url);
         webhook.storeVariable = storeVariable;
+        if (storeVariable != null) {
+            webhook.storeVariableTemplate = PlaceholderTemplate.of(storeVariable);
+        }
         webhook.silent = silent;
         webhook.dynamicStoreName = dynamicStoreName;
+        if (fieldsPart != null && storeVariable != null) {
+            webhook.parseResponseFields(fieldsPart);
+        }
 
 
         if (parts.length > 1 && !parts[1].isEmpty()) {
@@ -80,24 +110,64 @@ public class WebhookData {
         return webhook;
     }
 
+    /**
+     * {@code path} or {@code name=path} entries separated by commas; without a name the path is used
+     * with its dots replaced by underscores
+     */
+    private void parseResponseFields(String fieldsPart) {
+        for (String entry : fieldsPart.split(",")) {
+            String name;
+            String path;
+            int equals = entry.indexOf('=');
+            if (equals != -1) {
+                name = entry.substring(0, equals).trim();
+                path = entry.substring(equals + 1).trim();
+            } else {
+                path = entry.trim();
+                name = path.replace('.', '_');
+            }
+            if (!path.isEmpty() && !name.isEmpty()) {
+                responseFields.add(new ResponseField(name, path));
+                responsePaths.add(path);
+            }
+        }
+    }
+
     public String getUrl() {
         return url;
     }
 
+    public PlaceholderTemplate getUrlTemplate() {
+        return urlTemplate;
+    }
+
     public Map<String, String> getHeaders() {
         return headers;
     }
 
+    /**
+     * Header values compiled for placeholder rendering, keyed like {@link #getHeaders()}
+     */
+    public Map<String, PlaceholderTemplate> getHeaderTemplates() {
+        return headerTemplates;
+    }
+
     public String getBody() {
         return body;
     }
 
+    public PlaceholderTemplate getBodyTemplate() {
+        return bodyTemplate;
+    }
+
     public void addHeader(String key, String value) {
         headers.put(key, value);
+        headerTemplates.put(key, PlaceholderTemplate.of(value));
     }
 
     public void setBody(String body) {
         this.body = body;
+        this.bodyTemplate = PlaceholderTemplate.of(body);
     }
 
     public boolean hasBody() {
@@ -112,6 +182,10 @@ public class WebhookData {
         return storeVariable;
     }
 
+    public PlaceholderTemplate getStoreVariableTemplate() {
+        return storeVariableTemplate;
+    }
+
     public boolean shouldStoreResponse() {
         return storeVariable != null && !storeVariable.isEmpty();
     }
@@ -120,6 +194,17 @@ public class WebhookData {
         return !silent;
     }
 
+    public List<ResponseField> getResponseFields() {
+        return responseFields;
+    }
+
+    /**
+     * JSON paths to extract from the response, empty to store the whole body
+     */
+    public Set<String> getResponsePaths() {
+        return responsePaths;
+    }
+
     public boolean isDynamicStoreName() {
         return dynamicStoreName;
     }
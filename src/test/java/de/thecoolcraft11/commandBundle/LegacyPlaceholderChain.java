@@ -0,0 +1,462 @@
+package de.thecoolcraft11.commandBundle;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Frozen copy of the string-rewrite placeholder chain CustomCommandManager ran before
+ * {@link PlaceholderTemplate}. The pass methods are kept as they were, only the lookups at the top are
+ * pointed at a {@link PlaceholderFixture}. Do not change them along with the template, this is the reference.
+ */
+final class LegacyPlaceholderChain {
+    private final PlaceholderFixture env;
+    private final PlaceholderFixture.Variables variableManager;
+    private final boolean hostCommandsEnabled;
+
+    LegacyPlaceholderChain(PlaceholderFixture env) {
+        this.env = env;
+        this.variableManager = env.variables;
+        this.hostCommandsEnabled = env.substitution;
+    }
+
+    String replacePlaceholders(String text, String[] args) {
+        return replacePlaceholderTail(replacePlaceholderHead(env, text, args), this::executeCommandSubstitution);
+    }
+
+    private String getServerConstant(PlaceholderTemplate.ServerConstant constant) {
+        return env.serverConstant(constant);
+    }
+
+    private String getTeamPlayers(String teamName, boolean uuids) {
+        return env.teamPlayers(teamName, uuids);
+    }
+
+    private String readFileOrYaml(String fileSpec) {
+        return env.readFile(fileSpec);
+    }
+
+    private void writeFileOrYaml(String fileSpec) {
+        env.writeFile(fileSpec);
+    }
+
+    private String executeCommandSubstitution(String command) {
+        return env.substitute(command);
+    }
+
+    private String replacePlaceholderHead(PlaceholderFixture scope, String text, String[] args) {
+
+        text = processEscapeSequences(text);
+
+
+        text = replaceArguments(text, args);
+
+        PlaceholderFixture player = scope.player ? scope : null;
+        if (player != null) {
+            for (PlaceholderTemplate.PlayerField field : PlaceholderTemplate.PlayerField.values()) {
+                if (text.contains(field.getPlaceholder())) {
+                    text = text.replace(field.getPlaceholder(), player.playerField(field));
+                }
+            }
+
+            text = replaceVariables(text, player.playerId);
+        } else {
+
+            text = replaceVariablesForConsole(text);
+        }
+
+
+        text = replaceServerConstants(text);
+
+
+        text = replaceFileRead(text);
+
+
+        text = handleFileWrite(text);
+
+        return text;
+    }
+
+    private String replacePlaceholderTail(String text, Function<String, String> substitution) {
+
+        text = replaceCommandSubstitution(text, substitution);
+
+
+        text = replaceMathExpressions(text);
+        text = restoreEscapedCharacters(text);
+
+        return text;
+    }
+
+    private String replaceVariablesForConsole(String text) {
+        while (text.contains("%var:")) {
+            int start = text.indexOf("%var:");
+            int end = text.indexOf("%", start + 1);
+            if (end == -1) break;
+
+            String varSpec = text.substring(start + 5, end);
+            String value = resolveGlobalVariable(varSpec);
+
+            text = text.replace("%var:" + varSpec + "%", value);
+        }
+
+        return text;
+    }
+
+    String resolveGlobalVariable(String varSpec) {
+        int dot = varSpec.indexOf('.');
+        if (dot != -1) {
+            JsonDocument json = variableManager.getGlobalJson(varSpec.substring(0, dot));
+            return json == null ? "" : json.get(varSpec, dot + 1);
+        }
+
+        return variableManager.getGlobal(varSpec);
+    }
+
+    private String replaceServerConstants(String text) {
+
+        for (PlaceholderTemplate.ServerConstant constant : PlaceholderTemplate.ServerConstant.values()) {
+            if (text.contains(constant.getPlaceholder())) {
+                text = text.replace(constant.getPlaceholder(), getServerConstant(constant));
+            }
+        }
+
+
+        while (text.contains("%teamplayers:")) {
+            int start = text.indexOf("%teamplayers:");
+            int end = text.indexOf("%", start + 1);
+            if (end == -1) break;
+
+            String teamName = text.substring(start + 13, end);
+            String teamPlayers = getTeamPlayers(teamName, false);
+            text = text.substring(0, start) + teamPlayers + text.substring(end + 1);
+        }
+
+
+        while (text.contains("%teamplayers_uuid:")) {
+            int start = text.indexOf("%teamplayers_uuid:");
+            int end = text.indexOf("%", start + 1);
+            if (end == -1) break;
+
+            String teamName = text.substring(start + 18, end);
+            String teamPlayers = getTeamPlayers(teamName, true);
+            text = text.substring(0, start) + teamPlayers + text.substring(end + 1);
+        }
+
+
+        text = resolveNestedTeamPlayers(text, false);
+        text = resolveNestedTeamPlayers(text, true);
+
+        return text;
+    }
+
+    private String resolveNestedTeamPlayers(String text, boolean uuid) {
+        String prefix = uuid ? "%teamplayers_uuid:" : "%teamplayers:";
+        while (true) {
+            int idx = text.indexOf(prefix + "%");
+            if (idx == -1) break;
+
+            int innerStart = idx + prefix.length();
+            if (innerStart >= text.length() || text.charAt(innerStart) != '%') break;
+            int innerEnd = text.indexOf("%", innerStart + 1);
+            if (innerEnd == -1) break;
+
+
+            String resolvedInner;
+
+            resolvedInner = text.substring(innerStart, innerEnd + 1);
+
+            if (resolvedInner.startsWith("%") && resolvedInner.endsWith("%")) {
+                resolvedInner = resolvedInner.substring(1, resolvedInner.length() - 1);
+            }
+            String playersList = getTeamPlayers(resolvedInner, uuid);
+
+            int patternEnd = innerEnd + 1;
+
+            int replaceEnd = patternEnd + 1 <= text.length() ? patternEnd + 1 : patternEnd;
+            text = text.substring(0, idx) + playersList + text.substring(replaceEnd);
+        }
+        return text;
+    }
+
+    private String replaceArguments(String text, String[] args) {
+
+        if (args.length > 0) {
+            text = text.replace("%args%", String.join(" ", args));
+        } else {
+            text = text.replace("%args%", "");
+        }
+
+
+        for (int i = 1; i <= Math.max(args.length + 5, 10); i++) {
+
+            String patternWithDefault = "%arg" + i + "-::";
+            int defaultStart = text.indexOf(patternWithDefault);
+            if (defaultStart != -1) {
+                int defaultEnd = text.indexOf("%", defaultStart + patternWithDefault.length());
+                if (defaultEnd != -1) {
+                    String fullPlaceholder = text.substring(defaultStart, defaultEnd + 1);
+                    String defaultValue = text.substring(defaultStart + patternWithDefault.length(), defaultEnd);
+
+                    if (i <= args.length) {
+                        String[] remaining = Arrays.copyOfRange(args, i - 1, args.length);
+                        text = text.replace(fullPlaceholder, String.join(" ", remaining));
+                    } else {
+                        text = text.replace(fullPlaceholder, defaultValue);
+                    }
+                }
+            }
+
+
+            String pattern = "%arg" + i + "-%";
+            if (text.contains(pattern)) {
+                if (i <= args.length) {
+                    String[] remaining = Arrays.copyOfRange(args, i - 1, args.length);
+                    text = text.replace(pattern, String.join(" ", remaining));
+                } else {
+                    text = text.replace(pattern, "");
+                }
+            }
+        }
+
+
+        for (int i = 0; i < args.length; i++) {
+            text = text.replace("%arg" + (i + 1) + "%", args[i]);
+        }
+
+
+        while (text.contains("%arg")) {
+            int start = text.indexOf("%arg");
+            int end = text.indexOf("%", start + 1);
+            if (end == -1) break;
+
+            String placeholder = text.substring(start, end + 1);
+            String[] parts = placeholder.substring(1, placeholder.length() - 1).split("::");
+
+            if (parts.length >= 2) {
+                String argPart = parts[0];
+                String defaultValue = parts[1];
+
+                try {
+                    int argIndex = Integer.parseInt(argPart.substring(3)) - 1;
+                    String value = (argIndex >= 0 && argIndex < args.length) ? args[argIndex] : defaultValue;
+                    text = text.replace(placeholder, value);
+                } catch (NumberFormatException e) {
+                    text = text.replace(placeholder, defaultValue);
+                }
+            } else {
+                break;
+            }
+        }
+
+
+        int idx = 0;
+        while ((idx = text.indexOf("%arg", idx)) != -1) {
+            int end = text.indexOf("%", idx + 1);
+            if (end == -1) break;
+            String token = text.substring(idx + 1, end);
+            if (token.startsWith("arg")) {
+                String numPart = token.substring(3);
+                try {
+                    int argIndex = Integer.parseInt(numPart) - 1;
+                    String value = (argIndex >= 0 && argIndex < args.length) ? args[argIndex] : "";
+                    text = text.substring(0, idx) + value + text.substring(end + 1);
+                    idx += value.length();
+                    continue;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            idx = end + 1;
+        }
+
+        return text;
+    }
+
+    private String replaceVariables(String text, UUID playerId) {
+
+        while (text.contains("%var:")) {
+            int start = text.indexOf("%var:");
+            int end = text.indexOf("%", start + 1);
+            if (end == -1) break;
+
+            String varSpec = text.substring(start + 5, end);
+            String value = resolvePlayerVariable(playerId, varSpec);
+
+            text = text.replace("%var:" + varSpec + "%", value);
+        }
+
+        text = applyVariableFallback(text, playerId);
+
+        return text;
+    }
+
+    String resolvePlayerVariable(UUID playerId, String varSpec) {
+        int dot = varSpec.indexOf('.');
+        if (dot != -1) {
+            String varName = varSpec.substring(0, dot);
+            JsonDocument json = variableManager.getPlayerJson(playerId, varName);
+            if (json == null) {
+                json = variableManager.getGlobalJson(varName);
+            }
+            return json == null ? "" : json.get(varSpec, dot + 1);
+        }
+
+        String value = variableManager.getPlayer(playerId, varSpec);
+        if (value.isEmpty()) {
+            value = variableManager.getGlobal(varSpec);
+        }
+        return value;
+    }
+
+    String resolveFallbackVariable(UUID playerId, String name) {
+        String value = variableManager.getPlayer(playerId, name);
+        if (value.isEmpty()) value = variableManager.getGlobal(name);
+        return value;
+    }
+
+    private String applyVariableFallback(String text, UUID playerId) {
+
+        Set<String> reservedPrefixes = Set.of("player", "uuid", "players", "players_uuid", "playercount", "teams", "teamplayers", "teamplayers_uuid", "arg", "var", "count");
+        int idx = 0;
+        while ((idx = text.indexOf('%', idx)) != -1) {
+            int end = text.indexOf('%', idx + 1);
+            if (end == -1) break;
+            String token = text.substring(idx + 1, end);
+            if (token.contains(":") || token.contains("(") || token.contains("-::") || token.endsWith("-%")) {
+                idx = end + 1;
+                continue;
+            }
+            String lower = token.toLowerCase();
+            boolean reserved = reservedPrefixes.stream().anyMatch(lower::startsWith);
+            if (!reserved) {
+                String value = resolveFallbackVariable(playerId, token);
+                if (!value.isEmpty()) {
+                    text = text.substring(0, idx) + value + text.substring(end + 1);
+                    idx += value.length();
+                    continue;
+                }
+            }
+            idx = end + 1;
+        }
+        return text;
+    }
+
+    private String replaceCommandSubstitution(String text, Function<String, String> substitution) {
+        if (!hostCommandsEnabled) {
+            return text;
+        }
+
+        while (text.contains("&(")) {
+            int start = text.indexOf("&(");
+            int end = findMatchingParenthesis(text, start + 2);
+            if (end == -1) break;
+
+            String command = text.substring(start + 2, end);
+            String result = substitution.apply(command);
+            text = text.substring(0, start) + result + text.substring(end + 1);
+        }
+
+        return text;
+    }
+
+    private String replaceFileRead(String text) {
+        while (text.contains(",,")) {
+            int start = text.indexOf(",,");
+            int end = findNextWhitespaceOrEnd(text, start + 2);
+
+            String fileSpec = text.substring(start + 2, end);
+            String result = readFileOrYaml(fileSpec);
+            text = text.substring(0, start) + result + text.substring(end);
+        }
+
+        return text;
+    }
+
+    private String handleFileWrite(String text) {
+        while (text.contains(";;")) {
+            int start = text.indexOf(";;");
+            int end = findNextWhitespaceOrEnd(text, start + 2);
+
+            String fileSpec = text.substring(start + 2, end);
+            writeFileOrYaml(fileSpec);
+
+
+            text = text.substring(0, start) + text.substring(end);
+        }
+
+        return text;
+    }
+
+    private int findMatchingParenthesis(String text, int start) {
+        int depth = 1;
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '(') depth++;
+            else if (c == ')') {
+                depth--;
+                if (depth == 0) return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findNextWhitespaceOrEnd(String text, int start) {
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (Character.isWhitespace(c) || c == '"' || c == '\'' || c == ',' || c == ']' || c == '}' || c == ')') {
+                return i;
+            }
+        }
+        return text.length();
+    }
+
+    private String processEscapeSequences(String text) {
+
+        text = text.replace("\\ ", "\u0000SHELL_CONTINUATION_SPACE\u0000");
+        text = text.replace("\\\n", "\u0000SHELL_CONTINUATION_NEWLINE\u0000");
+
+
+        text = text.replace("\\\\", "\u0000ESCAPED_BACKSLASH\u0000");
+
+
+        text = text.replace("\\|", "\u0000ESCAPED_PIPE\u0000");
+        text = text.replace("\\%", "\u0000ESCAPED_PERCENT\u0000");
+        text = text.replace("\\:", "\u0000ESCAPED_COLON\u0000");
+        text = text.replace("\\[", "\u0000ESCAPED_LBRACKET\u0000");
+        text = text.replace("\\]", "\u0000ESCAPED_RBRACKET\u0000");
+
+        return text;
+    }
+
+    private String restoreEscapedCharacters(String text) {
+        text = text.replace("\u0000ESCAPED_PIPE\u0000", "|");
+        text = text.replace("\u0000ESCAPED_PERCENT\u0000", "%");
+        text = text.replace("\u0000ESCAPED_COLON\u0000", ":");
+        text = text.replace("\u0000ESCAPED_LBRACKET\u0000", "[");
+        text = text.replace("\u0000ESCAPED_RBRACKET\u0000", "]");
+        text = text.replace("\u0000ESCAPED_BACKSLASH\u0000", "\\");
+
+
+        text = text.replace("\u0000SHELL_CONTINUATION_SPACE\u0000", "\\ ");
+        text = text.replace("\u0000SHELL_CONTINUATION_NEWLINE\u0000", "\\\n");
+
+        return text;
+    }
+
+    private String replaceMathExpressions(String text) {
+        while (text.contains("{math:")) {
+            int start = text.indexOf("{math:");
+            int end = text.indexOf("}", start);
+            if (end == -1) break;
+
+            String expression = text.substring(start + 6, end);
+            String result = MathEvaluator.evaluate(expression);
+
+            text = text.substring(0, start) + result + text.substring(end + 1);
+        }
+
+        return text;
+    }
+}
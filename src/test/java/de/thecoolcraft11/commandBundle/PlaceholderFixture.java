@@ -0,0 +1,110 @@
+package de.thecoolcraft11.commandBundle;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * In-memory sender, variables, teams and files for rendering placeholders without a server.
+ * Files written and commands substituted are recorded in {@link #effects}, in order.
+ */
+final class PlaceholderFixture implements PlaceholderTemplate.Resolver {
+    final boolean player;
+    final boolean substitution;
+    final UUID playerId = new UUID(1, 2);
+    final Variables variables = new Variables();
+    final Map<PlaceholderTemplate.PlayerField, String> playerFields = new EnumMap<>(PlaceholderTemplate.PlayerField.class);
+    final Map<PlaceholderTemplate.ServerConstant, String> serverConstants = new EnumMap<>(PlaceholderTemplate.ServerConstant.class);
+    final Map<String, String> teams = new HashMap<>();
+    final Map<String, String> uuidTeams = new HashMap<>();
+    final Map<String, String> files = new HashMap<>();
+    final Map<String, String> substitutions = new HashMap<>();
+    final List<String> effects = new ArrayList<>();
+
+    PlaceholderFixture(boolean player, boolean substitution) {
+        this.player = player;
+        this.substitution = substitution;
+    }
+
+    /**
+     * The lookups of VariableManager the chain uses, over plain maps
+     */
+    static final class Variables {
+        final Map<String, String> global = new HashMap<>();
+        final Map<String, String> player = new HashMap<>();
+
+        String getGlobal(String name) {
+            return global.getOrDefault(name.toLowerCase(), "");
+        }
+
+        String getPlayer(UUID playerId, String name) {
+            return player.getOrDefault(name.toLowerCase(), "");
+        }
+
+        JsonDocument getGlobalJson(String name) {
+            String value = getGlobal(name);
+            return value.isEmpty() ? null : JsonDocument.parse(value);
+        }
+
+        JsonDocument getPlayerJson(UUID playerId, String name) {
+            String value = getPlayer(playerId, name);
+            return value.isEmpty() ? null : JsonDocument.parse(value);
+        }
+    }
+
+    @Override
+    public boolean isPlayer() {
+        return player;
+    }
+
+    @Override
+    public boolean isSubstitutionEnabled() {
+        return substitution;
+    }
+
+    @Override
+    public String playerField(PlaceholderTemplate.PlayerField field) {
+        return playerFields.get(field);
+    }
+
+    @Override
+    public String variable(String spec) {
+        LegacyPlaceholderChain chain = new LegacyPlaceholderChain(this);
+        return player ? chain.resolvePlayerVariable(playerId, spec) : chain.resolveGlobalVariable(spec);
+    }
+
+    @Override
+    public String fallbackVariable(String name) {
+        return new LegacyPlaceholderChain(this).resolveFallbackVariable(playerId, name);
+    }
+
+    @Override
+    public String serverConstant(PlaceholderTemplate.ServerConstant constant) {
+        return serverConstants.get(constant);
+    }
+
+    @Override
+    public String teamPlayers(String teamName, boolean uuids) {
+        return (uuids ? uuidTeams : teams).getOrDefault(teamName, "");
+    }
+
+    @Override
+    public String readFile(String fileSpec) {
+        return files.getOrDefault(fileSpec, "");
+    }
+
+    @Override
+    public void writeFile(String fileSpec) {
+        effects.add("write " + fileSpec);
+        files.put("f1", fileSpec);
+    }
+
+    @Override
+    public String substitute(String command) {
+        effects.add("run " + command);
+        return substitutions.getOrDefault(command, "out" + command.length());
+    }
+}
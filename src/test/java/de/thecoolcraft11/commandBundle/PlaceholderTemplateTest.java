@@ -0,0 +1,149 @@
+package de.thecoolcraft11.commandBundle;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Renders random templates, arguments and sender states through {@link PlaceholderTemplate} and through
+ * {@link LegacyPlaceholderChain}, and expects the same text and the same file writes and substitutions.
+ */
+class PlaceholderTemplateTest {
+    private static final long SEED = 1;
+    private static final int CASES = 20000;
+
+    private static final String[] TOKENS = {"%player%", "%uuid%", "%player_uuid%", "%world%", "%x%", "%y%",
+            "%arg1%", "%arg2%", "%arg3%", "%arg1-%", "%arg2-%", "%arg1-::d%", "%arg4-::x%", "%arg1::def%",
+            "%arg5::q%", "%args%", "%arg%", "%argx%", "%var:a%", "%var:b%", "%var:%arg1%%", "%var:j.k%", "%var:a",
+            "%a%", "%b%", "%c%", "%foo%", "%", "%%", ",,f1", ",,f2::k", ";;w::x", ";;w::y::1", "&(echo)",
+            "&(echo %arg1%)", "&(x(y)z)", "&(", "{math:1+2}", "{math:%arg1%*2}", "{math:", "}", "{math:1..3}",
+            "\\%", "\\:", "\\\\", "\\|", "\\ ", "\\[", "\\]", "\\", " ", ",", ";", "&", "(", ")", "{", ":", "x",
+            "ab", "pla", "yer", "%teamplayers:red%", "%teamplayers:%arg1%%", "%teamplayers_uuid:blue%", "%teams%",
+            "%players%", "%playercount%", "math", "{m", "ath:", "-::", "%i%", "i", "arg", "1", "s", "p", "t",
+            "%%arg1%%", "%a%s", "%var:%a%%", "%score_%player%%", "%%var:a%%", "\n", "\u0000", ",,%arg1%",
+            ";;f1::%arg2%", "&(echo %var:a%)", "{math:%var:a%+1}", "%arg1%%arg2%", "%c", "%a%%b%"};
+    private static final String[] VALUES = {"", "Steve", "1", "2", "a", "b", "x y", "%", "%player%", ",", ",,f1",
+            ";", "&", "(", ")", "}", "{math:1}", "\\", "\\%", ":", "arg1", "pla", "yer%", "red", "c", "foo",
+            "players", "world", "math:", "{", "f1", "ath:2}", "h:", "%arg2%", "%var:a%", "&(echo)", " ", "i", "-::",
+            "s", "t", "p", "ayer", "x", "score_Steve", "1+1", "&", "echo", "ESCAPED_PIPE\u0000", "\u0000", "[", "]",
+            "teams", "layer%", "v"};
+    private static final String[] VARIABLE_NAMES = {"a", "b", "c", "foo", "i", "s", "score_steve", "x", "1",
+            "steve", "v", "pla", "yer"};
+
+    @Test
+    void rendersLikeLegacyChain() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < CASES; i++) {
+            String source = template(random);
+            boolean loop = random.nextInt(5) == 0;
+            String item = VALUES[random.nextInt(VALUES.length)].trim();
+            if (item.isEmpty()) item = "q";
+            String[] args = args(random);
+            boolean player = random.nextBoolean();
+            boolean substitution = random.nextInt(4) != 0;
+            long fixtureSeed = random.nextLong();
+
+            PlaceholderFixture expected = fixture(fixtureSeed, player, substitution);
+            String legacySource = loop ? source.replace("%i%", item) : source;
+            String expectedText = new LegacyPlaceholderChain(expected).replacePlaceholders(legacySource, args);
+
+            PlaceholderTemplate template = loop ? PlaceholderTemplate.forLoop(source, "i") : PlaceholderTemplate.of(source);
+            // the second render goes through the shape cached by the first
+            for (int render = 0; render < 2; render++) {
+                PlaceholderFixture actual = fixture(fixtureSeed, player, substitution);
+                String text = template.render(actual, args, loop ? item : null);
+                String message = describe(source, args, player, substitution) + (loop ? " item=" + item : "") + " render=" + render;
+                assertEquals(expectedText, text, message);
+                assertEquals(expected.effects, actual.effects, message);
+            }
+        }
+    }
+
+    @Test
+    void rendersUntilSubstitutionLikeLegacyChain() {
+        Random random = new Random(SEED + 1);
+        for (int i = 0; i < CASES; i++) {
+            String source = template(random);
+            String[] args = args(random);
+            boolean player = random.nextBoolean();
+            long fixtureSeed = random.nextLong();
+
+            PlaceholderFixture expected = fixture(fixtureSeed, player, true);
+            String expectedText = new LegacyPlaceholderChain(expected).replacePlaceholders(source, args);
+
+            PlaceholderFixture actual = fixture(fixtureSeed, player, true);
+            String head = PlaceholderTemplate.of(source).renderUntilSubstitution(actual, args);
+            String text = PlaceholderTemplate.finish(head, actual::substitute);
+            String message = describe(source, args, player, true);
+            assertEquals(expectedText, text, message);
+            assertEquals(expected.effects, actual.effects, message);
+        }
+    }
+
+    private static String template(Random random) {
+        StringBuilder source = new StringBuilder();
+        int length = random.nextInt(7) + 1;
+        for (int i = 0; i < length; i++) {
+            source.append(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        return source.toString();
+    }
+
+    private static String[] args(Random random) {
+        String[] args = new String[random.nextInt(5)];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = VALUES[random.nextInt(VALUES.length)];
+        }
+        return args;
+    }
+
+    private static PlaceholderFixture fixture(long seed, boolean player, boolean substitution) {
+        Random random = new Random(seed);
+        PlaceholderFixture fixture = new PlaceholderFixture(player, substitution);
+        for (PlaceholderTemplate.PlayerField field : PlaceholderTemplate.PlayerField.values()) {
+            fixture.playerFields.put(field, random.nextInt(3) == 0 ? VALUES[random.nextInt(VALUES.length)] : field.name().toLowerCase() + "V");
+        }
+        for (PlaceholderTemplate.ServerConstant constant : PlaceholderTemplate.ServerConstant.values()) {
+            fixture.serverConstants.put(constant, random.nextInt(3) == 0 ? VALUES[random.nextInt(VALUES.length)] : "A,B");
+        }
+        for (String name : VARIABLE_NAMES) {
+            if (random.nextInt(3) == 0) fixture.variables.player.put(name, plainValue(random));
+            if (random.nextInt(3) == 0) fixture.variables.global.put(name, plainValue(random));
+        }
+        if (random.nextBoolean()) {
+            fixture.variables.global.put("j", "{\"k\":\"" + VALUES[random.nextInt(VALUES.length)].replace("\"", "") + "\"}");
+        }
+        fixture.teams.put("red", random.nextBoolean() ? "P1,P2" : VALUES[random.nextInt(VALUES.length)]);
+        fixture.uuidTeams.put("blue", "U1");
+        fixture.files.put("f1", plainFileValue(random));
+        fixture.files.put("f2::k", "K" + plainFileValue(random));
+        fixture.substitutions.put("echo", plainValue(random));
+        fixture.substitutions.put("echo " + VALUES[random.nextInt(VALUES.length)], plainValue(random));
+        return fixture;
+    }
+
+    /**
+     * A value without variables or substitutions, the chain rescans what it inserts and would never finish on a
+     * value that resolves to itself again
+     */
+    private static String plainValue(Random random) {
+        while (true) {
+            String value = VALUES[random.nextInt(VALUES.length)];
+            if (!value.contains("%var:") && !value.contains("&(")) return value;
+        }
+    }
+
+    private static String plainFileValue(Random random) {
+        while (true) {
+            String value = plainValue(random);
+            if (!value.contains(",,")) return value;
+        }
+    }
+
+    private static String describe(String source, String[] args, boolean player, boolean substitution) {
+        return "template=" + source + " args=" + Arrays.toString(args) + " player=" + player + " substitution=" + substitution;
+    }
+}